@@ -0,0 +1,344 @@
+import java.util.Arrays;
+
+/**
+ * A B-tree implementation with the same API as {@link RedBlackTree}. A red-black tree is a binary encoding of a 2-3-4
+ * tree; this class stores the equivalent multi-way nodes directly, with a configurable fan-out and the keys of each node
+ * packed into an array, so a lookup touches about log<sub>B</sub>(n) nodes instead of log<sub>2</sub>(n). Like the
+ * red-black tree, duplicate values are allowed.
+ * <p>
+ * Unlike {@link RedBlackTree#contains(Comparable)} and {@link RedBlackTree#remove(Comparable)}, which look for the
+ * same value instance, values are matched with {@link Comparable#compareTo(Object)}.
+ */
+public class BTree<V extends Comparable<? super V>> {
+    static final int DEFAULT_FAN_OUT = 32;
+
+    final int minDegree;
+    BTreeNode<V> root;
+    private int size;
+
+    /**
+     * Creates an empty tree with the default fan-out.
+     */
+    public BTree() {
+        this(DEFAULT_FAN_OUT);
+    }
+
+    /**
+     * Creates an empty tree with the specified fan-out, the maximum number of children per node. Odd values are rounded
+     * down to the next even value.
+     *
+     * @param fanOut the maximum number of children per node, at least 4
+     * @throws IllegalArgumentException if the fan-out is less than 4
+     */
+    public BTree(int fanOut) {
+        if (fanOut < 4) {
+            throw new IllegalArgumentException(String.format("Fan-out must be at least 4, was %d", fanOut));
+        }
+        minDegree = fanOut / 2;
+    }
+
+    /**
+     * Add the specified value to the tree.
+     *
+     * @param x the value to be added
+     */
+    public void add(V x) {
+        if (root == null) {
+            root = newNode(true);
+        } else if (root.isFull()) {
+            BTreeNode<V> node = newNode(false);
+            node.children[0] = root;
+            root = node;
+            split(root, 0);
+        }
+        insertNonFull(root, x);
+        size++;
+    }
+
+    /**
+     * Removes the specified value from the tree if it is present. Returns true if the tree contained the element.
+     *
+     * @param value the value to be removed from this tree
+     * @return true if the tree contained the specified value
+     */
+    public boolean remove(V value) {
+        if (root == null) {
+            return false;
+        }
+        boolean removed = delete(root, value);
+        if (root.count == 0) {
+            root = root.isLeaf() ? null : root.children[0];
+        }
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all of the values from the tree.
+     */
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Return true if the tree contains no values.
+     *
+     * @return true if the tree contains no values
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns true if tree contains the specified value.
+     *
+     * @param value the value whose presence is checked for in the tree
+     * @return true if the tree contains the specified value
+     */
+    public boolean contains(V value) {
+        BTreeNode<V> node = root;
+        while (node != null) {
+            int index = node.lowerBound(value);
+            if (index < node.count && node.key(index).compareTo(value) == 0) {
+                return true;
+            }
+            node = node.isLeaf() ? null : node.children[index];
+        }
+        return false;
+    }
+
+    /**
+     * Returns the least value in the tree greater then or equal to the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than or equal to the specified value, or null if there is no such value
+     */
+    public V ceiling(V value) {
+        V candidate = null;
+        BTreeNode<V> node = root;
+        while (node != null) {
+            int index = node.lowerBound(value);
+            if (index < node.count) {
+                candidate = node.key(index);
+                if (candidate.compareTo(value) == 0) {
+                    return candidate;
+                }
+            }
+            node = node.isLeaf() ? null : node.children[index];
+        }
+        return candidate;
+    }
+
+    /**
+     * Returns the least value in the tree strictly greater then the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than the value, or null is there is no such value
+     */
+    public V higher(V value) {
+        V candidate = null;
+        BTreeNode<V> node = root;
+        while (node != null) {
+            int index = node.upperBound(value);
+            if (index < node.count) {
+                candidate = node.key(index);
+            }
+            node = node.isLeaf() ? null : node.children[index];
+        }
+        return candidate;
+    }
+
+    /**
+     * Retrieves the first (lowest) value in the tree.
+     *
+     * @return the first value.
+     */
+    public V first() {
+        BTreeNode<V> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (!node.isLeaf()) {
+            node = node.children[0];
+        }
+        return node.key(0);
+    }
+
+    /**
+     * Retrieves the last (highest) value in the tree.
+     *
+     * @return the last value.
+     */
+    public V last() {
+        BTreeNode<V> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (!node.isLeaf()) {
+            node = node.children[node.count];
+        }
+        return node.key(node.count - 1);
+    }
+
+    /**
+     * Returns the number of values in the tree.
+     *
+     * @return the number of values in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s (%d)]", getClass().getSimpleName(), root, size());
+    }
+
+    private BTreeNode<V> newNode(boolean leaf) {
+        return new BTreeNode<V>(2 * minDegree - 1, leaf);
+    }
+
+    private void insertNonFull(BTreeNode<V> node, V x) {
+        while (!node.isLeaf()) {
+            int index = node.upperBound(x);
+            if (node.children[index].isFull()) {
+                split(node, index);
+                if (x.compareTo(node.key(index)) >= 0) {
+                    index++;
+                }
+            }
+            node = node.children[index];
+        }
+        node.insertKey(node.upperBound(x), x);
+    }
+
+    /**
+     * Splits the full child at the specified index around its median key, which moves up into the parent.
+     */
+    private void split(BTreeNode<V> parent, int index) {
+        BTreeNode<V> child = parent.children[index];
+        BTreeNode<V> sibling = newNode(child.isLeaf());
+        int t = minDegree;
+        System.arraycopy(child.keys, t, sibling.keys, 0, t - 1);
+        if (!child.isLeaf()) {
+            System.arraycopy(child.children, t, sibling.children, 0, t);
+            Arrays.fill(child.children, t, 2 * t, null);
+        }
+        sibling.count = t - 1;
+        V median = child.key(t - 1);
+        Arrays.fill(child.keys, t - 1, 2 * t - 1, null);
+        child.count = t - 1;
+        parent.insertChild(index + 1, sibling);
+        parent.insertKey(index, median);
+    }
+
+    /**
+     * Deletes the value from the subtree in a single pass down. Before descending into a child, the child is topped up
+     * to at least {@code minDegree} keys so a key can always be removed from it without walking back up.
+     */
+    private boolean delete(BTreeNode<V> node, V x) {
+        while (true) {
+            int index = node.lowerBound(x);
+            if (index < node.count && node.key(index).compareTo(x) == 0) {
+                if (node.isLeaf()) {
+                    node.removeKey(index);
+                    return true;
+                }
+                BTreeNode<V> left = node.children[index];
+                BTreeNode<V> right = node.children[index + 1];
+                if (left.count >= minDegree) {
+                    node.keys[index] = deleteMax(left);
+                    return true;
+                } else if (right.count >= minDegree) {
+                    node.keys[index] = deleteMin(right);
+                    return true;
+                }
+                merge(node, index);
+                node = left;
+            } else if (node.isLeaf()) {
+                return false;
+            } else {
+                node = node.children[fill(node, index)];
+            }
+        }
+    }
+
+    private V deleteMax(BTreeNode<V> node) {
+        while (!node.isLeaf()) {
+            node = node.children[fill(node, node.count)];
+        }
+        return node.removeKey(node.count - 1);
+    }
+
+    private V deleteMin(BTreeNode<V> node) {
+        while (!node.isLeaf()) {
+            node = node.children[fill(node, 0)];
+        }
+        return node.removeKey(0);
+    }
+
+    /**
+     * Makes sure the child at the specified index has at least {@code minDegree} keys, borrowing from a sibling or
+     * merging with one. Returns the index of the child that now covers the original child's key range.
+     */
+    private int fill(BTreeNode<V> node, int index) {
+        if (node.children[index].count >= minDegree) {
+            return index;
+        }
+        if (index > 0 && node.children[index - 1].count >= minDegree) {
+            borrowFromLeft(node, index);
+        } else if (index < node.count && node.children[index + 1].count >= minDegree) {
+            borrowFromRight(node, index);
+        } else if (index < node.count) {
+            merge(node, index);
+        } else {
+            merge(node, --index);
+        }
+        return index;
+    }
+
+    private void borrowFromLeft(BTreeNode<V> node, int index) {
+        BTreeNode<V> child = node.children[index];
+        BTreeNode<V> left = node.children[index - 1];
+        if (!child.isLeaf()) {
+            child.insertChild(0, left.children[left.count]);
+        }
+        child.insertKey(0, node.key(index - 1));
+        node.keys[index - 1] = left.removeKey(left.count - 1);
+        if (!left.isLeaf()) {
+            left.removeChild(left.count + 1);
+        }
+    }
+
+    private void borrowFromRight(BTreeNode<V> node, int index) {
+        BTreeNode<V> child = node.children[index];
+        BTreeNode<V> right = node.children[index + 1];
+        if (!child.isLeaf()) {
+            child.insertChild(child.count + 1, right.children[0]);
+        }
+        child.insertKey(child.count, node.key(index));
+        node.keys[index] = right.removeKey(0);
+        if (!right.isLeaf()) {
+            right.removeChild(0);
+        }
+    }
+
+    /**
+     * Merges the child at index + 1 and the separating key into the child at index.
+     */
+    private void merge(BTreeNode<V> node, int index) {
+        BTreeNode<V> left = node.children[index];
+        BTreeNode<V> right = node.children[index + 1];
+        left.keys[left.count] = node.keys[index];
+        System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+        if (!left.isLeaf()) {
+            System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+        }
+        left.count += 1 + right.count;
+        node.removeKey(index);
+        node.removeChild(index + 1);
+    }
+}
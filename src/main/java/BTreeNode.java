@@ -0,0 +1,112 @@
+/**
+ * A B-tree node. Keys are packed into an array so a node spans a few adjacent cache lines rather than one object per
+ * value. Leaf nodes have no children array.
+ */
+class BTreeNode<V extends Comparable<? super V>> {
+    final Object[] keys;
+    final BTreeNode<V>[] children;
+    int count;
+
+    @SuppressWarnings("unchecked")
+    BTreeNode(int maxKeys, boolean leaf) {
+        keys = new Object[maxKeys];
+        children = leaf ? null : (BTreeNode<V>[]) new BTreeNode[maxKeys + 1];
+    }
+
+    boolean isLeaf() {
+        return children == null;
+    }
+
+    boolean isFull() {
+        return count == keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    V key(int index) {
+        return (V) keys[index];
+    }
+
+    /**
+     * Returns the index of the first key greater than or equal to the specified value, or count if there is none.
+     */
+    int lowerBound(V value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(mid).compareTo(value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first key strictly greater than the specified value, or count if there is none.
+     */
+    int upperBound(V value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(mid).compareTo(value) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    void insertKey(int index, V value) {
+        System.arraycopy(keys, index, keys, index + 1, count - index);
+        keys[index] = value;
+        count++;
+    }
+
+    V removeKey(int index) {
+        V value = key(index);
+        System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+        keys[--count] = null;
+        return value;
+    }
+
+    /**
+     * Inserts a child pointer. Must be called before the matching {@link #insertKey(int, Comparable)}.
+     */
+    void insertChild(int index, BTreeNode<V> child) {
+        System.arraycopy(children, index, children, index + 1, count + 1 - index);
+        children[index] = child;
+    }
+
+    /**
+     * Removes a child pointer. Must be called after the matching {@link #removeKey(int)}.
+     */
+    BTreeNode<V> removeChild(int index) {
+        BTreeNode<V> child = children[index];
+        System.arraycopy(children, index + 1, children, index, count + 1 - index);
+        children[count + 1] = null;
+        return child;
+    }
+
+    int size() {
+        int size = count;
+        if (children != null) {
+            for (int i = 0; i <= count; i++) {
+                size += children[i].size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder keyInfo = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            keyInfo.append(i == 0 ? "" : ", ").append(keys[i]);
+        }
+        return String.format("%s[%s%s]", getClass().getSimpleName(), keyInfo, isLeaf() ? "" : " ...");
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Bloom filter over value hash codes, used by {@link SortedRun} to skip runs that cannot contain a value. The bit
+ * positions are derived from two hashes of {@link Object#hashCode()} by double hashing.
+ */
+class BloomFilter {
+    private final long[] bits;
+    private final int hashes;
+
+    /**
+     * Creates a filter for the expected number of values. Ten bits per value gives about a 1% false positive rate.
+     */
+    BloomFilter(int expectedValues, int bitsPerValue) {
+        this(new long[Math.max(1, (int) (((long) expectedValues * bitsPerValue + 63) / 64))],
+                Math.max(1, (int) Math.round(bitsPerValue * Math.log(2))));
+    }
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    void add(Object value) {
+        long bitCount = 64L * bits.length;
+        int hash = value.hashCode();
+        long first = mix(hash);
+        long second = mix(hash ^ 0x5BD1E995) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((first + i * second) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(Object value) {
+        long bitCount = 64L * bits.length;
+        int hash = value.hashCode();
+        long first = mix(hash);
+        long second = mix(hash ^ 0x5BD1E995) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((first + i * second) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter read(DataInput in) throws IOException {
+        int hashes = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashes);
+    }
+
+    private static long mix(long hash) {
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * An immutable, read-optimized copy of a {@link RedBlackTree}, created by {@link RedBlackTree#freeze()}. The values are
+ * stored in a single array in Eytzinger (breadth-first) order: the children of the value at index k are at 2k and
+ * 2k + 1. The first levels of every search share the same few cache lines, and each step only computes the next index
+ * from a comparison result, so there are no pointers to chase and no hard to predict branches.
+ * <p>
+ * Unlike {@link RedBlackTree#contains(Comparable)}, values are matched with {@link Comparable#compareTo(Object)}.
+ */
+public class FrozenTree<V extends Comparable<? super V>> {
+    private static final int BATCH = 16;
+
+    private final Object[] values;
+    private final int size;
+
+    /**
+     * Creates a frozen tree from values in ascending order.
+     */
+    FrozenTree(Object[] sorted) {
+        size = sorted.length;
+        values = new Object[size + 1];
+        layout(sorted, 0, 1);
+    }
+
+    private int layout(Object[] sorted, int index, int k) {
+        if (k <= size) {
+            index = layout(sorted, index, 2 * k);
+            values[k] = sorted[index++];
+            index = layout(sorted, index, 2 * k + 1);
+        }
+        return index;
+    }
+
+    /**
+     * Return true if the tree contains no values.
+     *
+     * @return true if the tree contains no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of values in the tree.
+     *
+     * @return the number of values in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if tree contains the specified value.
+     *
+     * @param value the value whose presence is checked for in the tree
+     * @return true if the tree contains the specified value
+     */
+    public boolean contains(V value) {
+        int k = lowerBound(value);
+        return k != 0 && value(k).compareTo(value) == 0;
+    }
+
+    /**
+     * Checks a batch of values. The searches are run in lockstep, one tree level at a time, so the memory loads of
+     * independent searches overlap instead of each search waiting on its own cache misses.
+     *
+     * @param values the values whose presence is checked for in the tree
+     * @return an array where element i is true if the tree contains values[i]
+     */
+    public boolean[] contains(V[] values) {
+        boolean[] found = new boolean[values.length];
+        int[] k = new int[BATCH];
+        for (int offset = 0; offset < values.length; offset += BATCH) {
+            int count = Math.min(BATCH, values.length - offset);
+            for (int i = 0; i < count; i++) {
+                k[i] = 1;
+            }
+            boolean active = size > 0;
+            while (active) {
+                active = false;
+                for (int i = 0; i < count; i++) {
+                    if (k[i] <= size) {
+                        k[i] = 2 * k[i] + (value(k[i]).compareTo(values[offset + i]) < 0 ? 1 : 0);
+                        active = true;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int match = k[i] >> (Integer.numberOfTrailingZeros(~k[i]) + 1);
+                found[offset + i] = match != 0 && value(match).compareTo(values[offset + i]) == 0;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the least value in the tree greater then or equal to the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than or equal to the specified value, or null if there is no such value
+     */
+    public V ceiling(V value) {
+        return value(lowerBound(value));
+    }
+
+    /**
+     * Returns the greatest value in the tree less then or equal to the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the greatest value less than or equal to the specified value, or null if there is no such value
+     */
+    public V floor(V value) {
+        int k = 1;
+        while (k <= size) {
+            k = 2 * k + (value(k).compareTo(value) <= 0 ? 1 : 0);
+        }
+        // the answer is the last node where the search went right: drop the trailing left turns and that right turn
+        return value(k >> (Integer.numberOfTrailingZeros(k) + 1));
+    }
+
+    /**
+     * Returns the least value in the tree strictly greater then the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than the value, or null is there is no such value
+     */
+    public V higher(V value) {
+        int k = 1;
+        while (k <= size) {
+            k = 2 * k + (value(k).compareTo(value) <= 0 ? 1 : 0);
+        }
+        return value(k >> (Integer.numberOfTrailingZeros(~k) + 1));
+    }
+
+    /**
+     * Retrieves the first (lowest) value in the tree.
+     *
+     * @return the first value.
+     */
+    public V first() {
+        int k = 0;
+        for (int next = 1; next <= size; next *= 2) {
+            k = next;
+        }
+        return value(k);
+    }
+
+    /**
+     * Retrieves the last (highest) value in the tree.
+     *
+     * @return the last value.
+     */
+    public V last() {
+        int k = 0;
+        for (int next = 1; next <= size; next = 2 * next + 1) {
+            k = next;
+        }
+        return value(k);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s..%s (%d)]", getClass().getSimpleName(), first(), last(), size());
+    }
+
+    /**
+     * Returns the index of the least value greater than or equal to the given value, or 0 if there is no such value.
+     */
+    private int lowerBound(V value) {
+        int k = 1;
+        while (k <= size) {
+            k = 2 * k + (value(k).compareTo(value) < 0 ? 1 : 0);
+        }
+        // the answer is the last node where the search went left: drop the trailing right turns and that left turn
+        return k >> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int k) {
+        return (V) values[k];
+    }
+}
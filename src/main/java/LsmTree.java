@@ -0,0 +1,591 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A log-structured merge tree for indexes larger than the heap. New values go into a {@link RedBlackTree} memtable;
+ * when the memtable reaches its capacity it is written to disk as an immutable {@link SortedRun} with a sparse index
+ * and a Bloom filter. Lookups merge the results of the memtable and all runs.
+ * <p>
+ * Runs are grouped into tiers by size: tier 0 holds runs of up to the memtable capacity, and each tier above holds runs
+ * up to {@code runsPerTier} times larger than the tier below. Once a tier has {@code runsPerTier} runs, a background
+ * thread merges them into one run of the next tier, so each value is rewritten about once per tier and the number of
+ * runs grows with the logarithm of the number of values. If merging falls behind and a tier reaches twice that many
+ * runs, {@link #flush()}, and so {@link #add(Comparable)}, blocks until it catches up. A failed merge leaves its
+ * input runs in place, is retried after the next flush, and is reported by {@link #compact()} or {@link #close()}.
+ * <p>
+ * Runs found in the directory are opened when the tree is created. Values still in the memtable are only written by
+ * {@link #flush()} or {@link #close()}. Values are matched with {@link Comparable#compareTo(Object)}, and the Bloom
+ * filters rely on {@link Object#hashCode()} being consistent with it. Values cannot be removed. All methods are
+ * thread safe; a flush writes its run without holding the lock, so other threads' lookups and adds do not wait for the
+ * disk.
+ */
+public class LsmTree<V extends Comparable<? super V>> implements Closeable {
+    static final int DEFAULT_RUNS_PER_TIER = 4;
+    private static final Pattern RUN_FILE = Pattern.compile("run-(\\d+)\\.dat");
+
+    private final File directory;
+    private final ValueCodec<V> codec;
+    private final int memtableCapacity;
+    private final int runsPerTier;
+    private final ExecutorService compactor;
+    private final List<SortedRun<V>> runs = new ArrayList<SortedRun<V>>();
+    private RedBlackTree<V> memtable = new RedBlackTree<V>();
+    private final List<RedBlackTree<V>> flushing = new ArrayList<RedBlackTree<V>>();
+    private long nextRun;
+    private boolean compactionScheduled;
+    private IOException compactionFailure;
+
+    /**
+     * Creates a tree storing its runs in the specified directory, merging {@value #DEFAULT_RUNS_PER_TIER} runs of a
+     * similar size at a time.
+     *
+     * @param directory the directory holding the run files, created if necessary
+     * @param codec the codec used to write and read values
+     * @param memtableCapacity the number of values held in memory before they are flushed to a run
+     * @throws IOException if the directory or the existing runs cannot be read
+     */
+    public LsmTree(File directory, ValueCodec<V> codec, int memtableCapacity) throws IOException {
+        this(directory, codec, memtableCapacity, DEFAULT_RUNS_PER_TIER);
+    }
+
+    /**
+     * Creates a tree storing its runs in the specified directory.
+     *
+     * @param directory the directory holding the run files, created if necessary
+     * @param codec the codec used to write and read values
+     * @param memtableCapacity the number of values held in memory before they are flushed to a run
+     * @param runsPerTier the number of runs of a similar size that are merged into one in the background
+     * @throws IOException if the directory or the existing runs cannot be read
+     * @throws IllegalArgumentException if the capacity is less than 1 or the runs per tier less than 2
+     */
+    public LsmTree(File directory, ValueCodec<V> codec, int memtableCapacity, int runsPerTier) throws IOException {
+        if (memtableCapacity < 1) {
+            throw new IllegalArgumentException(String.format("Memtable capacity must be at least 1, was %d",
+                    memtableCapacity));
+        }
+        if (runsPerTier < 2) {
+            throw new IllegalArgumentException(String.format("Runs per tier must be at least 2, was %d",
+                    runsPerTier));
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create directory %s", directory));
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.memtableCapacity = memtableCapacity;
+        this.runsPerTier = runsPerTier;
+        openRuns();
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "lsm-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Add the specified value to the tree. If the memtable is full, it is flushed to a new run first.
+     *
+     * @param x the value to be added
+     * @throws UncheckedIOException if the full memtable cannot be flushed; the value was not added then, so the call
+     *         can be retried. Failures of background merges are not reported here but by {@link #compact()} and
+     *         {@link #close()}.
+     */
+    public void add(V x) {
+        try {
+            flush(memtableCapacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (this) {
+            memtable.add(x);
+        }
+    }
+
+    /**
+     * Return true if the tree contains no values.
+     *
+     * @return true if the tree contains no values
+     */
+    public synchronized boolean isEmpty() {
+        return memtable.isEmpty() && flushing.isEmpty() && runs.isEmpty();
+    }
+
+    /**
+     * Returns the number of values in the tree.
+     *
+     * @return the number of values in the tree
+     */
+    public synchronized long size() {
+        long size = memtable.size();
+        for (RedBlackTree<V> table : flushing) {
+            size += table.size();
+        }
+        for (SortedRun<V> run : runs) {
+            size += run.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if tree contains the specified value.
+     *
+     * @param value the value whose presence is checked for in the tree
+     * @return true if the tree contains the specified value
+     */
+    public synchronized boolean contains(V value) {
+        V ceiling = memtable.ceiling(value);
+        for (RedBlackTree<V> table : flushing) {
+            ceiling = min(ceiling, table.ceiling(value));
+        }
+        if (ceiling != null && ceiling.compareTo(value) == 0) {
+            return true;
+        }
+        for (SortedRun<V> run : runs) {
+            if (run.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the least value in the tree greater then or equal to the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than or equal to the specified value, or null if there is no such value
+     */
+    public synchronized V ceiling(V value) {
+        V ceiling = memtable.ceiling(value);
+        for (RedBlackTree<V> table : flushing) {
+            ceiling = min(ceiling, table.ceiling(value));
+        }
+        for (SortedRun<V> run : runs) {
+            if (ceiling != null && ceiling.compareTo(value) == 0) {
+                break;
+            }
+            ceiling = min(ceiling, run.ceiling(value));
+        }
+        return ceiling;
+    }
+
+    /**
+     * Returns the least value in the tree strictly greater then the given value, or null if there is no such value.
+     *
+     * @param value the value to match
+     * @return the least value greater than the value, or null is there is no such value
+     */
+    public synchronized V higher(V value) {
+        V higher = memtable.higher(value);
+        for (RedBlackTree<V> table : flushing) {
+            higher = min(higher, table.higher(value));
+        }
+        for (SortedRun<V> run : runs) {
+            higher = min(higher, run.higher(value));
+        }
+        return higher;
+    }
+
+    /**
+     * Retrieves the first (lowest) value in the tree.
+     *
+     * @return the first value.
+     */
+    public synchronized V first() {
+        V first = memtable.first();
+        for (RedBlackTree<V> table : flushing) {
+            first = min(first, table.first());
+        }
+        for (SortedRun<V> run : runs) {
+            first = min(first, run.first());
+        }
+        return first;
+    }
+
+    /**
+     * Retrieves the last (highest) value in the tree.
+     *
+     * @return the last value.
+     */
+    public synchronized V last() {
+        V last = memtable.last();
+        for (RedBlackTree<V> table : flushing) {
+            last = max(last, table.last());
+        }
+        for (SortedRun<V> run : runs) {
+            last = max(last, run.last());
+        }
+        return last;
+    }
+
+    /**
+     * Writes the values in the memtable to a new run and empties the memtable. Schedules a background merge if a tier
+     * is now full, and waits for merging to catch up if a tier has twice as many runs as it should. Once a background
+     * merge has failed, flushes stop waiting until the failure is reported by {@link #compact()} or {@link #close()}.
+     *
+     * @throws IOException if the run cannot be written, in which case the memtable keeps its values, or if the thread
+     *         is interrupted while waiting
+     */
+    public void flush() throws IOException {
+        flush(1);
+    }
+
+    /**
+     * Flushes the memtable if it holds at least the given number of values. The memtable is swapped for an empty one
+     * under the lock and written without it, so lookups and adds continue while the run is written; lookups keep
+     * reading the old memtable until its run is swapped in.
+     */
+    private void flush(int minimum) throws IOException {
+        RedBlackTree<V> table;
+        synchronized (this) {
+            if (memtable.isEmpty() || memtable.size() < minimum) {
+                return;
+            }
+            table = memtable;
+            memtable = new RedBlackTree<V>();
+            flushing.add(table);
+        }
+        Object[] values = table.toArray();
+        @SuppressWarnings("unchecked")
+        List<V> list = (List<V>) (List<?>) Arrays.asList(values);
+        SortedRun<V> run;
+        try {
+            run = SortedRun.write(newRunFile(), list.iterator(), values.length, new long[0], codec);
+        } catch (IOException e) {
+            synchronized (this) {
+                flushing.remove(table);
+                for (V value : list) {
+                    memtable.add(value);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            flushing.remove(table);
+            runs.add(run);
+            scheduleCompaction();
+            while (compactionFailure == null && fullestTier(2 * runsPerTier) != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for compaction");
+                }
+                scheduleCompaction();
+            }
+        }
+    }
+
+    /**
+     * Flushes the memtable and merges all runs into one, waiting for the merge to finish.
+     *
+     * @throws IOException if the memtable cannot be flushed or the runs cannot be merged
+     */
+    public void compact() throws IOException {
+        flush();
+        try {
+            compactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    compactRuns(true);
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compaction failed", e.getCause());
+        }
+        throwCompactionFailure();
+    }
+
+    /**
+     * Flushes the memtable, waits for a running compaction to finish and closes the run files.
+     *
+     * @throws IOException if the memtable cannot be flushed or a compaction failed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (SortedRun<V> run : runs) {
+                run.close();
+            }
+            runs.clear();
+        }
+        throwCompactionFailure();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s[%s, %d runs (%d)]", getClass().getSimpleName(), directory, runs.size(), size());
+    }
+
+    synchronized int runCount() {
+        return runs.size();
+    }
+
+    /**
+     * Opens the runs in the directory. A crash after a merged run was written but before its inputs were deleted leaves
+     * both behind; the inputs are recognized from the merged run's list of replaced runs and deleted.
+     */
+    private void openRuns() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException(String.format("Could not list directory %s", directory));
+        }
+        Arrays.sort(files);
+        Set<Long> replaced = new HashSet<Long>();
+        try {
+            for (File file : files) {
+                if (RUN_FILE.matcher(file.getName()).matches()) {
+                    SortedRun<V> run = SortedRun.open(file, codec);
+                    runs.add(run);
+                    for (long sequence : run.replaced) {
+                        replaced.add(sequence);
+                    }
+                    nextRun = Math.max(nextRun, sequence(file) + 1);
+                } else if (file.getName().endsWith(".dat.tmp")) {
+                    file.delete();
+                }
+            }
+        } catch (IOException e) {
+            for (SortedRun<V> run : runs) {
+                run.close();
+            }
+            throw e;
+        }
+        for (Iterator<SortedRun<V>> iterator = runs.iterator(); iterator.hasNext(); ) {
+            SortedRun<V> run = iterator.next();
+            if (replaced.contains(sequence(run.file))) {
+                iterator.remove();
+                run.close();
+                run.file.delete();
+            }
+        }
+    }
+
+    private static long sequence(File file) {
+        Matcher matcher = RUN_FILE.matcher(file.getName());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(String.format("Not a run file name, %s", file));
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Returns the runs of the tier with the most runs if it has at least the given number, otherwise null. Must be
+     * called holding the lock.
+     */
+    private List<SortedRun<V>> fullestTier(int minimum) {
+        Map<Integer, List<SortedRun<V>>> tiers = new TreeMap<Integer, List<SortedRun<V>>>();
+        List<SortedRun<V>> fullest = null;
+        for (SortedRun<V> run : runs) {
+            int tier = 0;
+            for (long limit = memtableCapacity; run.size() > limit; limit *= runsPerTier) {
+                tier++;
+            }
+            List<SortedRun<V>> tierRuns = tiers.get(tier);
+            if (tierRuns == null) {
+                tierRuns = new ArrayList<SortedRun<V>>();
+                tiers.put(tier, tierRuns);
+            }
+            tierRuns.add(run);
+        }
+        for (List<SortedRun<V>> tierRuns : tiers.values()) {
+            if (fullest == null || tierRuns.size() > fullest.size()) {
+                fullest = tierRuns;
+            }
+        }
+        return fullest != null && fullest.size() >= minimum ? fullest : null;
+    }
+
+    /**
+     * Schedules a background merge if a tier is full and none is scheduled yet. Must be called holding the lock.
+     */
+    private void scheduleCompaction() {
+        if (!compactionScheduled && !compactor.isShutdown() && fullestTier(runsPerTier) != null) {
+            compactionScheduled = true;
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compactRuns(false);
+                }
+            });
+        }
+    }
+
+    private synchronized File newRunFile() {
+        return new File(directory, String.format("run-%012d.dat", nextRun++));
+    }
+
+    /**
+     * Merges the runs of the fullest tier, or all runs, into one. The merge reads the immutable run files without
+     * holding the lock, so lookups and flushes continue meanwhile; only swapping in the merged run takes the lock.
+     */
+    private void compactRuns(boolean all) {
+        List<SortedRun<V>> inputs;
+        long size = 0;
+        synchronized (this) {
+            if (all) {
+                inputs = runs.size() < 2 ? null : new ArrayList<SortedRun<V>>(runs);
+            } else {
+                compactionScheduled = false;
+                inputs = fullestTier(runsPerTier);
+            }
+            if (inputs == null) {
+                return;
+            }
+            for (SortedRun<V> run : inputs) {
+                size += run.size();
+            }
+        }
+        try {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Cannot merge more than %d values, was %d", Integer.MAX_VALUE,
+                        size));
+            }
+            MergeIterator<V> merged = new MergeIterator<V>(inputs);
+            SortedRun<V> run;
+            try {
+                long[] replaced = new long[inputs.size()];
+                for (int i = 0; i < replaced.length; i++) {
+                    replaced[i] = sequence(inputs.get(i).file);
+                }
+                run = SortedRun.write(newRunFile(), merged, (int) size, replaced, codec);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                merged.close();
+            }
+            synchronized (this) {
+                runs.removeAll(inputs);
+                runs.add(run);
+                notifyAll();
+                scheduleCompaction();
+            }
+            for (SortedRun<V> input : inputs) {
+                input.close();
+                input.file.delete();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                compactionFailure = e;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void throwCompactionFailure() throws IOException {
+        IOException failure = compactionFailure;
+        compactionFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static <V extends Comparable<? super V>> V min(V value, V other) {
+        if (value == null) {
+            return other;
+        }
+        return other == null || value.compareTo(other) <= 0 ? value : other;
+    }
+
+    private static <V extends Comparable<? super V>> V max(V value, V other) {
+        if (value == null) {
+            return other;
+        }
+        return other == null || value.compareTo(other) >= 0 ? value : other;
+    }
+
+    /**
+     * Merges the values of several runs into one ascending sequence.
+     */
+    private static class MergeIterator<V extends Comparable<? super V>> implements Iterator<V> {
+        private final List<SortedRun.Cursor<V>> cursors = new ArrayList<SortedRun.Cursor<V>>();
+        private final PriorityQueue<SortedRun.Cursor<V>> queue;
+
+        MergeIterator(List<SortedRun<V>> runs) throws IOException {
+            queue = new PriorityQueue<SortedRun.Cursor<V>>(runs.size(), new Comparator<SortedRun.Cursor<V>>() {
+                @Override
+                public int compare(SortedRun.Cursor<V> cursor, SortedRun.Cursor<V> other) {
+                    return cursor.value.compareTo(other.value);
+                }
+            });
+            try {
+                for (SortedRun<V> run : runs) {
+                    SortedRun.Cursor<V> cursor = run.cursor();
+                    cursors.add(cursor);
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            SortedRun.Cursor<V> cursor = queue.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            V value = cursor.value;
+            try {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void close() throws IOException {
+            for (SortedRun.Cursor<V> cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+}
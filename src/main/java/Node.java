@@ -9,6 +9,7 @@ class Node<V extends Comparable<? super V>> {
     Node<V> parent;
     Color color;
     V value;
+    boolean deleted;
 
     Node(V value) {
         this.value = value;
@@ -62,14 +63,6 @@ class Node<V extends Comparable<? super V>> {
         return 1 + (left == null ? 0 : left.size()) + (right == null ? 0 : right.size());
     }
 
-    Node<V> sibling() {
-        if (this == parent.left) {
-            return parent.right;
-        } else {
-            return parent.left;
-        }
-    }
-
     @Override
     public String toString() {
         String leftInfo = left == null ? "" : String.format(" [left %s, %s]", left.value, left.color);
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from value to {@link Node}, used as an optional side index by {@link RedBlackTree}.
+ * Like the tree's own search, values are matched by identity, so the index finds exactly the nodes the tree would. The
+ * table uses linear probing and is kept at most half full; removal shifts later entries back instead of leaving
+ * markers, so lookups never slow down as values come and go.
+ */
+class NodeIndex<V extends Comparable<? super V>> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Node<V>[] table;
+    private int size;
+
+    NodeIndex() {
+        table = newTable(INITIAL_CAPACITY);
+    }
+
+    Node<V> find(V value) {
+        int mask = table.length - 1;
+        for (int i = hash(value) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].value == value) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    void add(Node<V> node) {
+        if (2 * (size + 1) > table.length) {
+            resize(2 * table.length);
+        }
+        insert(table, node);
+        size++;
+    }
+
+    /**
+     * Removes the entry for the node, if there is one. Must be called while the node still holds the value it was added
+     * with.
+     */
+    void remove(Node<V> node) {
+        int mask = table.length - 1;
+        int i = hash(node.value) & mask;
+        while (table[i] != node) {
+            if (table[i] == null) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = null;
+        size--;
+        // move back later entries of the probe run that can no longer be reached past the empty slot
+        for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+            int home = hash(table[j].value) & mask;
+            if (i <= j ? home <= i || home > j : home <= i && home > j) {
+                table[i] = table[j];
+                table[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(table, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    private void resize(int capacity) {
+        Node<V>[] resized = newTable(capacity);
+        for (Node<V> node : table) {
+            if (node != null) {
+                insert(resized, node);
+            }
+        }
+        table = resized;
+    }
+
+    private void insert(Node<V>[] table, Node<V> node) {
+        int mask = table.length - 1;
+        int i = hash(node.value) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = node;
+    }
+
+    private static int hash(Object value) {
+        int hash = System.identityHashCode(value) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V extends Comparable<? super V>> Node<V>[] newTable(int capacity) {
+        return (Node<V>[]) new Node[capacity];
+    }
+}
@@ -1,16 +1,146 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
 /**
  * A Red-black tree implementation. Values are stored in the tree
+ * <p>
+ * By default {@link #remove(Comparable)} unlinks the node and rebalances the tree straight away. With lazy deletion
+ * enabled (see {@link #setCompactionRatio(double)}) it only marks the node as deleted; readers skip these tombstones.
+ * Once they make up more than the compaction ratio of the nodes, every further removal also rebuilds a small subtree
+ * around the oldest tombstone without its tombstones. The cleanup is spread over many calls instead of stalling one of
+ * them, and rebuilding a subtree in one pass is cheaper than unlinking its tombstones one at a time.
+ * <p>
+ * A bounded tree holds at most a fixed number of values. When it is full, adding a value evicts the first or the last
+ * value, so the tree keeps the largest or the smallest values seen. The tree keeps direct references to its first and
+ * last nodes, so checking whether a value is admitted and finding the value to evict do not search the tree.
+ * <p>
+ * An optional hash index (see {@link #setHashIndex(boolean)}) maps values to their nodes, making {@link
+ * #contains(Comparable)} and the lookup part of {@link #remove(Comparable)} O(1) at the cost of two to four table
+ * slots per value.
  */
 public class RedBlackTree<V extends Comparable<? super V>> {
+    private static final int REBUILD_HEIGHT = 4;
+
+    /**
+     * The end of a bounded tree that values are evicted from when it is full.
+     */
+    public enum Eviction {First, Last}
+
+    /**
+     * Receives the values evicted from a bounded tree.
+     */
+    public interface EvictionListener<V> {
+        /**
+         * Called after a value has been evicted from the tree.
+         *
+         * @param value the evicted value
+         */
+        void evicted(V value);
+    }
+
+    /**
+     * Receives the differences found by {@link #diff(RedBlackTree, DiffListener)}.
+     */
+    public interface DiffListener<V> {
+        /**
+         * Called for a value in the other tree that is not in this tree.
+         *
+         * @param value the added value
+         */
+        void added(V value);
+
+        /**
+         * Called for a value in this tree that is not in the other tree.
+         *
+         * @param value the removed value
+         */
+        void removed(V value);
+    }
+
     Node<V> root;
+    // the first and last live nodes, never nodes marked as deleted
+    private Node<V> lowest;
+    private Node<V> highest;
+    private int count;
+    private int tombstones;
+    private final ArrayDeque<Node<V>> pendingTombstones = new ArrayDeque<Node<V>>();
+    private Node<V>[] scratch;
+    private double compactionRatio;
+    private final int capacity;
+    private final Eviction eviction;
+    private EvictionListener<V> evictionListener;
+    private NodeIndex<V> index;
 
     /**
-     * Add the specified value to the tree.
+     * Creates an empty, unbounded tree.
+     */
+    public RedBlackTree() {
+        capacity = Integer.MAX_VALUE;
+        eviction = null;
+    }
+
+    /**
+     * Creates an empty tree that holds at most the specified number of values. To keep the K largest values, evict
+     * from the {@link Eviction#First} end; to keep the K smallest, evict from the {@link Eviction#Last} end.
+     *
+     * @param capacity the maximum number of values in the tree
+     * @param eviction the end of the tree that values are evicted from when it is full
+     * @throws IllegalArgumentException if the capacity is less than 1
+     */
+    public RedBlackTree(int capacity, Eviction eviction) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("Capacity must be at least 1, was %d", capacity));
+        }
+        if (eviction == null) {
+            throw new NullPointerException("Eviction must not be null");
+        }
+        this.capacity = capacity;
+        this.eviction = eviction;
+    }
+
+    /**
+     * Add the specified value to the tree. If the tree is bounded and full, either a value is evicted or the specified
+     * value is not added, see {@link #offer(Comparable)}.
      *
      * @param x the value to be added
      */
     public void add(V x) {
-        insert(insertWhere(root, new Node<V>(x)));
+        offer(x);
+    }
+
+    /**
+     * Adds the specified value to the tree unless the tree is bounded and full and the value does not rank above the
+     * value that would be evicted for it. When the value is added to a full tree, the first or last value is evicted
+     * and passed to the eviction listener.
+     *
+     * @param x the value to be added
+     * @return true if the value was added
+     */
+    public boolean offer(V x) {
+        if (size() >= capacity) {
+            Node<V> victim = eviction == Eviction.First ? lowest : highest;
+            int compare = x.compareTo(victim.value);
+            if (eviction == Eviction.First ? compare <= 0 : compare >= 0) {
+                return false;
+            }
+            removeNode(victim);
+            if (evictionListener != null) {
+                evictionListener.evicted(victim.value);
+            }
+        }
+        Node<V> node = insertWhere(root, new Node<V>(x));
+        insert(node);
+        if (index != null) {
+            index.add(node);
+        }
+        if (lowest == null || x.compareTo(lowest.value) < 0) {
+            lowest = node;
+        }
+        if (highest == null || x.compareTo(highest.value) >= 0) {
+            highest = node;
+        }
+        count++;
+        return true;
     }
 
     /**
@@ -20,7 +150,11 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      * @return true if the tree contained the specified value
      */
     public boolean remove(V value) {
-        return delete(value);
+        Node<V> node = lookup(value);
+        if (node != null) {
+            removeNode(node);
+        }
+        return node != null;
     }
 
     /**
@@ -28,6 +162,14 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      */
     public void clear() {
         root = null;
+        lowest = null;
+        highest = null;
+        count = 0;
+        if (index != null) {
+            index.clear();
+        }
+        tombstones = 0;
+        pendingTombstones.clear();
     }
 
     /**
@@ -36,7 +178,7 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      * @return true if the tree contains no values
      */
     public boolean isEmpty() {
-        return root == null;
+        return size() == 0;
     }
 
     /**
@@ -46,7 +188,7 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      * @return true if the tree contains the specified value
      */
     public boolean contains(V value) {
-        return find(value) != null;
+        return lookup(value) != null;
     }
 
     /**
@@ -56,21 +198,7 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      * @return the least value greater than or equal to the specified value, or null if there is no such value
      */
     public V ceiling(V value) {
-        Node<V> node = root;
-
-        while (node != null) {
-            int compare = node.value.compareTo(value);
-            if (compare == 0 || compare > 0 && node.right == null) {
-                return node.value;
-            }
-
-            if (node.left != null && value.compareTo(last(node.left)) <= 0) {
-                node = node.left;
-            } else {
-                node = node.right;
-            }
-        }
-        return null;
+        return valueOf(liveOrNext(ceilingNode(value)));
     }
 
     /**
@@ -81,20 +209,16 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      */
     public V higher(V value) {
         Node<V> node = root;
-
+        Node<V> higher = null;
         while (node != null) {
-            int compare = node.value.compareTo(value);
-            if (compare > 0 && node.isChildless()) {
-                return node.value;
-            }
-
-            if (node.left != null && value.compareTo(last(node.left)) < 0) {
+            if (node.value.compareTo(value) > 0) {
+                higher = node;
                 node = node.left;
             } else {
                 node = node.right;
             }
         }
-        return null;
+        return valueOf(liveOrNext(higher));
     }
 
     /**
@@ -103,45 +227,148 @@ public class RedBlackTree<V extends Comparable<? super V>> {
      * @return the first value.
      */
     public V first() {
-        return first(root);
+        return valueOf(lowest);
     }
 
-    private V first(Node<V> node) {
-        if (node == null) {
-            return null;
+    /**
+     * Retrieves the last (highest) value in the tree.
+     *
+     * @return the last value.
+     */
+    public V last() {
+        return valueOf(highest);
+    }
+
+    /**
+     * Returns the number of values in the tree.
+     *
+     * @return the number of values in the tree
+     */
+    public int size() {
+        return count - tombstones;
+    }
+
+    /**
+     * Enables or disables lazy deletion. With a ratio greater than 0, {@link #remove(Comparable)} marks the node as
+     * deleted instead of unlinking it. While more than the given fraction of the nodes are deleted, each removal also
+     * rebuilds a small subtree around the oldest deleted node, at most {@value #REBUILD_HEIGHT} black nodes high, from
+     * its live nodes. A ratio of 1 never compacts automatically, leaving it to explicit {@link #compact()} calls. A
+     * ratio of 0, the default, disables lazy deletion and compacts any remaining deleted nodes.
+     *
+     * @param compactionRatio the fraction of deleted nodes above which removals unlink deleted nodes, from 0 to 1
+     * @throws IllegalArgumentException if the ratio is not between 0 and 1
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        if (!(compactionRatio >= 0 && compactionRatio <= 1)) {
+            throw new IllegalArgumentException(String.format("Compaction ratio must be between 0 and 1, was %s",
+                    compactionRatio));
         }
-        while (node.left != null) {
-            node = node.left;
+        this.compactionRatio = compactionRatio;
+        if (compactionRatio == 0) {
+            compact();
         }
-        return node.value;
     }
 
     /**
-     * Retrieves the last (highest) value in the tree.
+     * Enables or disables the hash index from values to nodes. The index is maintained by every change to the tree and
+     * makes {@link #contains(Comparable)} and finding the node to remove O(1) instead of O(log n). The table is kept
+     * between a quarter and half full, so it costs two to four references per value, 8 to 16 bytes with compressed
+     * references; it pays off when membership checks dominate.
      *
-     * @return the last value.
+     * @param enabled true to build and maintain the index, false to drop it
      */
-    public V last() {
-        return last(root);
+    public void setHashIndex(boolean enabled) {
+        if (!enabled) {
+            index = null;
+        } else if (index == null) {
+            index = new NodeIndex<V>();
+            for (Node<V> node = lowest; node != null; node = liveOrNext(successor(node))) {
+                index.add(node);
+            }
+        }
     }
 
-    private V last(Node<V> node) {
-        if (node == null) {
-            return null;
+    /**
+     * Rebuilds the tree from its live nodes in one pass, dropping all nodes marked as deleted by lazy deletion. Does
+     * nothing if there are no deleted nodes. This takes time proportional to the size of the tree; with a compaction
+     * ratio below 1 the tree is also cleaned up incrementally, so calling this is optional.
+     */
+    public void compact() {
+        if (tombstones == 0) {
+            return;
         }
-        while (node.right != null) {
-            node = node.right;
+        Node<V>[] nodes = newNodes(size());
+        int index = 0;
+        for (Node<V> node = lowest; node != null; node = liveOrNext(successor(node))) {
+            nodes[index++] = node;
         }
-        return node.value;
+        setRoot(build(nodes, 0, nodes.length - 1, 31 - Integer.numberOfLeadingZeros(nodes.length + 1)));
+        lowest = nodes.length == 0 ? null : nodes[0];
+        highest = nodes.length == 0 ? null : nodes[nodes.length - 1];
+        count = nodes.length;
+        tombstones = 0;
+        pendingTombstones.clear();
     }
 
     /**
-     * Returns the number of values in the tree.
+     * Streams the differences between this tree and another tree, in ascending order, to the listener: the values
+     * that would have to be added to and removed from this tree to make it equal to the other tree. Both trees are
+     * walked in order in parallel, taking O(n + m) time and no extra memory. Values are matched with
+     * {@link Comparable#compareTo(Object)}, and duplicate values are matched one for one.
      *
-     * @return the number of values in the tree
+     * @param other the tree to compare with
+     * @param listener the listener receiving the added and removed values
      */
-    public int size() {
-        return root == null ? 0 : root.size();
+    public void diff(RedBlackTree<V> other, DiffListener<V> listener) {
+        if (other == this) {
+            return;
+        }
+        Node<V> node = lowest;
+        Node<V> otherNode = other.lowest;
+        while (node != null || otherNode != null) {
+            int compare = node == null ? 1 : otherNode == null ? -1 : node.value.compareTo(otherNode.value);
+            if (compare < 0) {
+                listener.removed(node.value);
+                node = liveOrNext(successor(node));
+            } else if (compare > 0) {
+                listener.added(otherNode.value);
+                otherNode = liveOrNext(successor(otherNode));
+            } else {
+                node = liveOrNext(successor(node));
+                otherNode = liveOrNext(successor(otherNode));
+            }
+        }
+    }
+
+    /**
+     * Sets the listener that receives the values evicted from a bounded tree.
+     *
+     * @param evictionListener the listener, or null for none
+     */
+    public void setEvictionListener(EvictionListener<V> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Returns an immutable, read-optimized copy of the values in the tree. Later changes to the tree are not reflected
+     * in the copy.
+     *
+     * @return a frozen copy of the tree
+     */
+    public FrozenTree<V> freeze() {
+        return new FrozenTree<V>(toArray());
+    }
+
+    /**
+     * Returns the values in the tree in ascending order.
+     */
+    Object[] toArray() {
+        Object[] sorted = new Object[size()];
+        int index = 0;
+        for (Node<V> node = lowest; node != null; node = liveOrNext(successor(node))) {
+            sorted[index++] = node.value;
+        }
+        return sorted;
     }
 
     @Override
@@ -156,17 +383,90 @@ public class RedBlackTree<V extends Comparable<? super V>> {
         }
     }
 
-    private Node<V> find(V value) {
+    private Node<V> firstNode(Node<V> node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    private Node<V> lastNode(Node<V> node) {
+        if (node != null) {
+            while (node.right != null) {
+                node = node.right;
+            }
+        }
+        return node;
+    }
+
+    private Node<V> successor(Node<V> node) {
+        if (node.right != null) {
+            return firstNode(node.right);
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private Node<V> predecessor(Node<V> node) {
+        if (node.left != null) {
+            return lastNode(node.left);
+        }
+        while (node.parent != null && node == node.parent.left) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private Node<V> liveOrNext(Node<V> node) {
+        while (node != null && node.deleted) {
+            node = successor(node);
+        }
+        return node;
+    }
+
+    private Node<V> liveOrPrevious(Node<V> node) {
+        while (node != null && node.deleted) {
+            node = predecessor(node);
+        }
+        return node;
+    }
+
+    private Node<V> lookup(V value) {
+        return index != null ? index.find(value) : find(value);
+    }
+
+    private Node<V> ceilingNode(V value) {
         Node<V> node = root;
+        Node<V> ceiling = null;
         while (node != null) {
-            if (node.value == value) {
-                return node;
-            } else if (value.compareTo(node.value) < 0) {
+            if (node.value.compareTo(value) >= 0) {
+                ceiling = node;
                 node = node.left;
             } else {
                 node = node.right;
             }
         }
+        return ceiling;
+    }
+
+    private V valueOf(Node<V> node) {
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Finds the live node holding the specified value instance. Equal values can end up on either side of each other
+     * after rotations, so all nodes comparing equal are checked in order.
+     */
+    private Node<V> find(V value) {
+        for (Node<V> node = ceilingNode(value); node != null && node.value.compareTo(value) == 0; node = successor(node)) {
+            if (node.value == value && !node.deleted) {
+                return node;
+            }
+        }
         return null;
     }
 
@@ -281,105 +581,286 @@ public class RedBlackTree<V extends Comparable<? super V>> {
         }
     }
 
-    private boolean delete(V x) {
-        Node<V> node = find(x);
-        if (node != null) {
-            if (!isLeaf(node.left) && !isLeaf(node.right)) {
-                node = copyMaxPredecessor(node);
+    private void removeNode(Node<V> node) {
+        if (compactionRatio > 0) {
+            markDeleted(node);
+        } else {
+            delete(node);
+        }
+    }
+
+    private void markDeleted(Node<V> node) {
+        if (index != null) {
+            index.remove(node);
+        }
+        node.deleted = true;
+        tombstones++;
+        if (node == lowest) {
+            lowest = liveOrNext(successor(node));
+        }
+        if (node == highest) {
+            highest = liveOrPrevious(predecessor(node));
+        }
+        pendingTombstones.add(node);
+        while (tombstones > compactionRatio * count) {
+            compactStep();
+        }
+    }
+
+    /**
+     * Removes the oldest pending tombstone together with every other tombstone near it. The tombstone's highest
+     * ancestor with at most {@value #REBUILD_HEIGHT} black nodes on each path is rebuilt from its live nodes with its
+     * black height unchanged, which costs a few pointer writes per node instead of a rebalancing pass per tombstone.
+     * Tombstones higher up, and tombstones in subtrees already as small as their black height allows, are unlinked on
+     * their own.
+     */
+    private void compactStep() {
+        // tombstones already dropped by an earlier rebuild are unlinked but still queued
+        Node<V> tombstone = pendingTombstones.poll();
+        while (tombstone != root && tombstone.parent == null) {
+            tombstone = pendingTombstones.poll();
+        }
+        int blackHeight = blackHeight(tombstone);
+        if (blackHeight <= REBUILD_HEIGHT) {
+            Node<V> subtree = tombstone;
+            while (subtree.parent != null && blackHeight + (subtree.parent.isBlack() ? 1 : 0) <= REBUILD_HEIGHT) {
+                subtree = subtree.parent;
+                blackHeight += subtree.isBlack() ? 1 : 0;
             }
-            Node<V> child = isLeaf(node.right) ? node.left : node.right;
-            if (node.isBlack()) {
-                if (!isBlack(child)) {
-                    node.setRed();
-                }
-                deleteCase1(node);
+            if (subtree.isRed()) {
+                subtree = subtree.parent;
+                blackHeight++;
+            }
+            if (rebuild(subtree, blackHeight, tombstone)) {
+                return;
             }
-            replace(node, child);
         }
-        return node != null;
+        delete(tombstone);
+        tombstone.parent = null;
+        tombstones--;
     }
 
-    private void deleteCase1(Node<V> node) {
-        if (node.parent != null) {
-            deleteCase2(node);
+    /**
+     * Returns the number of black nodes on each path from the node down to a leaf, including the node itself.
+     */
+    private int blackHeight(Node<V> node) {
+        int blackHeight = 0;
+        for (; node != null; node = node.left) {
+            blackHeight += node.isBlack() ? 1 : 0;
         }
+        return blackHeight;
     }
 
-    private void deleteCase2(Node<V> node) {
-        Node<V> sibling = node.sibling();
-        if (isRed(sibling)) {
-            node.parent.setRed();
-            sibling.setBlack();
-            if (node == node.parent.left) {
-                rotateLeft(node.parent);
+    /**
+     * Replaces a subtree with a balanced one built from its live nodes, unlinking the given tombstone and the other
+     * tombstones in the subtree. The subtree root must be black. If there are too few live nodes for the subtree's
+     * black height, just enough of the other tombstones are kept to make up the difference; they stay queued. Fails,
+     * leaving the tree unchanged, if no tombstone at all could be unlinked.
+     *
+     * @return true if the subtree was rebuilt
+     */
+    private boolean rebuild(Node<V> subtree, int blackHeight, Node<V> tombstone) {
+        if (scratch == null) {
+            scratch = newNodes((1 << 2 * (REBUILD_HEIGHT + 1)) - 1);
+        }
+        int size = collect(subtree, 0);
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            live += scratch[i].deleted ? 0 : 1;
+        }
+        int keep = Math.max(0, (1 << blackHeight) - 1 - live);
+        if (live + keep == size) {
+            return false;
+        }
+        Node<V> parent = subtree.parent;
+        boolean left = parent != null && subtree == parent.left;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Node<V> node = scratch[i];
+            if (!node.deleted) {
+                scratch[kept++] = node;
+            } else if (keep > 0 && node != tombstone) {
+                scratch[kept++] = node;
+                keep--;
             } else {
-                rotateRight(node.parent);
+                node.parent = null;
+                node.left = null;
+                node.right = null;
             }
         }
-        deleteCase3(node);
+        Node<V> rebuilt = build(scratch, 0, kept - 1, blackHeight);
+        rebuilt.parent = parent;
+        if (parent == null) {
+            root = rebuilt;
+        } else if (left) {
+            parent.left = rebuilt;
+        } else {
+            parent.right = rebuilt;
+        }
+        Arrays.fill(scratch, 0, size, null);
+        count -= size - kept;
+        tombstones -= size - kept;
+        return true;
     }
 
-    private void deleteCase3(Node<V> node) {
-        Node<V> sibling = node.sibling();
-        if (node.parent.isBlack() &&
-                sibling != null &&
-                isBlack(sibling) &&
-                isBlack(sibling.left) &&
-                isBlack(sibling.right)) {
-            sibling.setRed();
-            deleteCase1(node.parent);
-        } else {
-            deleteCase4(node);
+    /**
+     * Stores the nodes of a subtree in ascending order in the scratch array, starting at the given position.
+     *
+     * @return the position after the last node stored
+     */
+    private int collect(Node<V> node, int position) {
+        if (node == null) {
+            return position;
         }
+        position = collect(node.left, position);
+        scratch[position++] = node;
+        return collect(node.right, position);
     }
 
-    private void deleteCase4(Node<V> node) {
-        Node<V> sibling = node.sibling();
-        if (node.parent.isRed() &&
-                sibling != null &&
-                isBlack(sibling) &&
-                isBlack(sibling.left) &&
-                isBlack(sibling.right)) {
-            sibling.setRed();
-            node.parent.setBlack();
-        } else {
-            deleteCase5(node);
-        }
-    }
-
-    private void deleteCase5(Node<V> node) {
-        Node<V> sibling = node.sibling();
-        if (node == node.parent.left &&
-                sibling != null &&
-                sibling.isBlack() &&
-                isRed(sibling.left) &&
-                isBlack(sibling.right)) {
-            sibling.setRed();
-            if (sibling.left != null) sibling.left.setBlack();
-            rotateRight(sibling);
-        } else if (node == node.parent.right &&
-                sibling != null &&
-                isBlack(sibling) &&
-                isBlack(sibling.left) &&
-                isRed(sibling.right)) {
-            sibling.setRed();
-            if (sibling.right != null) sibling.right.setBlack();
-            rotateLeft(sibling);
-        }
-        deleteCase6(node);
-    }
-
-    private void deleteCase6(Node<V> node) {
-        Node<V> sibling = node.sibling();
-        setColorOfOther(sibling, node.parent);
-        setBlack(node.parent);
-        if (node == node.parent.left) {
-            setBlack(sibling.right);
-            rotateLeft(node.parent);
+    /**
+     * Builds a subtree from nodes in ascending order with the given number of black nodes on every path, which needs
+     * between 2^blackHeight - 1 and 4^blackHeight - 1 nodes. The nodes are laid out as a perfectly balanced 2-3-4 tree:
+     * each black node takes up to two red children, and the nodes below are split as evenly as possible.
+     */
+    private Node<V> build(Node<V>[] nodes, int low, int high, int blackHeight) {
+        if (blackHeight == 0) {
+            return null;
+        }
+        int size = high - low + 1;
+        long childLimit = (1L << 2 * (blackHeight - 1)) - 1;
+        int keys = 1;
+        while (size - keys > (keys + 1) * childLimit) {
+            keys++;
+        }
+        int childSize = (size - keys) / (keys + 1);
+        int larger = (size - keys) % (keys + 1);
+        int first = low + childSize + (larger > 0 ? 1 : 0);
+        int second = first + 1 + childSize + (larger > 1 ? 1 : 0);
+        Node<V> left = link(nodes[first], build(nodes, low, first - 1, blackHeight - 1),
+                build(nodes, first + 1, second - 1, blackHeight - 1), keys == 1 ? Node.Color.Black : Node.Color.Red);
+        if (keys == 1) {
+            return left;
+        }
+        Node<V> right;
+        if (keys == 2) {
+            right = build(nodes, second + 1, high, blackHeight - 1);
         } else {
-            setBlack(sibling.left);
-            rotateRight(node.parent);
+            int third = second + 1 + childSize + (larger > 2 ? 1 : 0);
+            right = link(nodes[third], build(nodes, second + 1, third - 1, blackHeight - 1),
+                    build(nodes, third + 1, high, blackHeight - 1), Node.Color.Red);
         }
+        return link(nodes[second], left, right, Node.Color.Black);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<V>[] newNodes(int length) {
+        return (Node<V>[]) new Node[length];
+    }
+
+    private Node<V> link(Node<V> node, Node<V> left, Node<V> right, Node.Color color) {
+        node.left = left;
+        node.right = right;
+        node.parent = null;
+        node.color = color;
+        if (left != null) {
+            left.parent = node;
+        }
+        if (right != null) {
+            right.parent = node;
+        }
+        return node;
+    }
+
+    /**
+     * Unlinks the node from the tree. A node with two children first trades places with its in-order predecessor, so
+     * nodes keep their values and references to other nodes stay valid.
+     */
+    private void delete(Node<V> node) {
+        if (index != null) {
+            index.remove(node);
+        }
+        if (node == lowest) {
+            lowest = liveOrNext(successor(node));
+        }
+        if (node == highest) {
+            highest = liveOrPrevious(predecessor(node));
+        }
+        if (!isLeaf(node.left) && !isLeaf(node.right)) {
+            swapWithPredecessor(node, maxPredecessor(node));
+        }
+        Node<V> child = isLeaf(node.right) ? node.left : node.right;
+        Node<V> parent = node.parent;
+        replace(node, child);
+        count--;
+        if (node.isBlack()) {
+            if (isRed(child)) {
+                child.setBlack();
+            } else {
+                deleteFixup(child, parent);
+            }
+        }
+    }
+
+    /**
+     * Restores the tree properties after a black node was unlinked, leaving the path through node, which may be null,
+     * one black node short. Each pass either fixes the tree with at most three rotations or moves the shortage one
+     * level up.
+     */
+    private void deleteFixup(Node<V> node, Node<V> parent) {
+        while (node != root && isBlack(node)) {
+            if (node == parent.left) {
+                Node<V> sibling = parent.right;
+                if (isRed(sibling)) {
+                    sibling.setBlack();
+                    parent.setRed();
+                    rotateLeft(parent);
+                    sibling = parent.right;
+                }
+                if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                    sibling.setRed();
+                    node = parent;
+                    parent = node.parent;
+                } else {
+                    if (isBlack(sibling.right)) {
+                        sibling.left.setBlack();
+                        sibling.setRed();
+                        rotateRight(sibling);
+                        sibling = parent.right;
+                    }
+                    sibling.color = parent.color;
+                    parent.setBlack();
+                    sibling.right.setBlack();
+                    rotateLeft(parent);
+                    node = root;
+                }
+            } else {
+                Node<V> sibling = parent.left;
+                if (isRed(sibling)) {
+                    sibling.setBlack();
+                    parent.setRed();
+                    rotateRight(parent);
+                    sibling = parent.left;
+                }
+                if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                    sibling.setRed();
+                    node = parent;
+                    parent = node.parent;
+                } else {
+                    if (isBlack(sibling.left)) {
+                        sibling.right.setBlack();
+                        sibling.setRed();
+                        rotateLeft(sibling);
+                        sibling = parent.left;
+                    }
+                    sibling.color = parent.color;
+                    parent.setBlack();
+                    sibling.left.setBlack();
+                    rotateRight(parent);
+                    node = root;
+                }
+            }
+        }
+        setBlack(node);
     }
 
     private void setBlack(Node<V> node) {
@@ -394,12 +875,6 @@ public class RedBlackTree<V extends Comparable<? super V>> {
         }
     }
 
-    private void setColorOfOther(Node<V> node, Node<V> other) {
-        if (node != null && other != null) {
-            node.color = other.color;
-        }
-    }
-
     private boolean isRed(Node<V> node) {
         return node != null && node.isRed();
     }
@@ -412,12 +887,6 @@ public class RedBlackTree<V extends Comparable<? super V>> {
         return node == null;
     }
 
-    private Node<V> copyMaxPredecessor(Node<V> node) {
-        Node<V> predecessor = maxPredecessor(node);
-        node.value = predecessor.value;
-        return predecessor;
-    }
-
     private Node<V> maxPredecessor(Node<V> node) {
         node = node.left;
         while (node.right != null) {
@@ -426,6 +895,44 @@ public class RedBlackTree<V extends Comparable<? super V>> {
         return node;
     }
 
+    /**
+     * Swaps the positions and colors of a node with two children and its in-order predecessor, which has no right
+     * child. Afterwards the node has at most one child and can be unlinked.
+     */
+    private void swapWithPredecessor(Node<V> node, Node<V> predecessor) {
+        Node.Color color = node.color;
+        node.color = predecessor.color;
+        predecessor.color = color;
+
+        Node<V> parent = node.parent;
+        Node<V> predecessorParent = predecessor.parent;
+        Node<V> predecessorLeft = predecessor.left;
+        if (parent == null) {
+            root = predecessor;
+        } else if (node == parent.left) {
+            parent.left = predecessor;
+        } else {
+            parent.right = predecessor;
+        }
+        predecessor.parent = parent;
+        predecessor.right = node.right;
+        predecessor.right.parent = predecessor;
+        if (predecessorParent == node) {
+            predecessor.left = node;
+            node.parent = predecessor;
+        } else {
+            predecessor.left = node.left;
+            predecessor.left.parent = predecessor;
+            predecessorParent.right = node;
+            node.parent = predecessorParent;
+        }
+        node.left = predecessorLeft;
+        if (predecessorLeft != null) {
+            predecessorLeft.parent = node;
+        }
+        node.right = null;
+    }
+
     private void replace(Node<V> node, Node<V> replacement) {
         if (node.isRoot()) {
             setRoot(replacement);
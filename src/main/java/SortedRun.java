@@ -0,0 +1,317 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable file of values in ascending order, written when an {@link LsmTree} flushes its memtable or compacts its
+ * runs. The file holds the values in blocks of {@link #BLOCK_SIZE}, followed by a sparse index with the first value
+ * and file offset of every block, the last value, a {@link BloomFilter}, the sequence numbers of the runs it was merged
+ * from and a fixed size footer. The index, the last value and the Bloom filter are kept in memory, so a lookup reads a
+ * single block in the common case.
+ */
+class SortedRun<V extends Comparable<? super V>> implements Closeable {
+    static final int BLOCK_SIZE = 64;
+    private static final int BLOOM_BITS_PER_VALUE = 10;
+    private static final int MAGIC = 0x52554E31;
+    private static final int FOOTER_SIZE = 16;
+
+    final File file;
+    private final ValueCodec<V> codec;
+    private final RandomAccessFile in;
+    private final Object[] blockFirst;
+    private final long[] blockOffset;
+    private final long dataEnd;
+    private final int size;
+    private final V last;
+    private final BloomFilter bloomFilter;
+    final long[] replaced;
+
+    private SortedRun(File file, ValueCodec<V> codec) throws IOException {
+        this.file = file;
+        this.codec = codec;
+        in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - FOOTER_SIZE);
+            dataEnd = in.readLong();
+            size = in.readInt();
+            if (in.readInt() != MAGIC) {
+                throw new IOException(String.format("Not a sorted run file, %s", file));
+            }
+            byte[] bytes = new byte[(int) (in.length() - FOOTER_SIZE - dataEnd)];
+            in.seek(dataEnd);
+            in.readFully(bytes);
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(bytes));
+            blockFirst = new Object[index.readInt()];
+            blockOffset = new long[blockFirst.length];
+            for (int i = 0; i < blockFirst.length; i++) {
+                blockOffset[i] = index.readLong();
+                blockFirst[i] = codec.read(index);
+            }
+            last = codec.read(index);
+            bloomFilter = BloomFilter.read(index);
+            replaced = new long[index.readInt()];
+            for (int i = 0; i < replaced.length; i++) {
+                replaced[i] = index.readLong();
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing run file.
+     */
+    static <V extends Comparable<? super V>> SortedRun<V> open(File file, ValueCodec<V> codec) throws IOException {
+        return new SortedRun<V>(file, codec);
+    }
+
+    /**
+     * Writes the values, which must be in ascending order and at least one, to a new run file and opens it. The file
+     * is written under a temporary name, synced to disk and only then renamed, so a crash never leaves a partial run
+     * behind.
+     *
+     * @param expectedSize the number of values, used to size the Bloom filter
+     * @param replaced the sequence numbers of the runs merged into this one, which are obsolete once it exists
+     */
+    static <V extends Comparable<? super V>> SortedRun<V> write(File file, Iterator<V> values, int expectedSize,
+                                                                long[] replaced, ValueCodec<V> codec)
+            throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temporary);
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOut));
+        DataOutputStream out = new DataOutputStream(counter);
+        try {
+            List<V> firsts = new ArrayList<V>();
+            List<Long> offsets = new ArrayList<Long>();
+            BloomFilter bloomFilter = new BloomFilter(expectedSize, BLOOM_BITS_PER_VALUE);
+            V value = null;
+            int size = 0;
+            while (values.hasNext()) {
+                value = values.next();
+                if (size % BLOCK_SIZE == 0) {
+                    firsts.add(value);
+                    offsets.add(counter.count);
+                }
+                codec.write(out, value);
+                bloomFilter.add(value);
+                size++;
+            }
+            if (size == 0) {
+                throw new IllegalArgumentException("A sorted run must have at least one value");
+            }
+            long dataEnd = counter.count;
+            out.writeInt(firsts.size());
+            for (int i = 0; i < firsts.size(); i++) {
+                out.writeLong(offsets.get(i));
+                codec.write(out, firsts.get(i));
+            }
+            codec.write(out, value);
+            bloomFilter.write(out);
+            out.writeInt(replaced.length);
+            for (long sequence : replaced) {
+                out.writeLong(sequence);
+            }
+            out.writeLong(dataEnd);
+            out.writeInt(size);
+            out.writeInt(MAGIC);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+        } catch (IOException e) {
+            out.close();
+            temporary.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            out.close();
+            temporary.delete();
+            throw e;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException(String.format("Could not rename %s to %s", temporary, file));
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+        return open(file, codec);
+    }
+
+    /**
+     * Makes the rename of a run file durable. Not every platform can open a directory for syncing, so this is best
+     * effort.
+     */
+    private static void syncDirectory(File directory) {
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // the run file itself is synced; only the directory entry may be lost
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V first() {
+        return (V) blockFirst[0];
+    }
+
+    V last() {
+        return last;
+    }
+
+    boolean contains(V value) {
+        if (value.compareTo(first()) < 0 || value.compareTo(last) > 0 || !bloomFilter.mightContain(value)) {
+            return false;
+        }
+        V ceiling = ceiling(value);
+        return ceiling != null && ceiling.compareTo(value) == 0;
+    }
+
+    V ceiling(V value) {
+        if (value.compareTo(last) > 0) {
+            return null;
+        }
+        return scan(blockBefore(value, false), value, false);
+    }
+
+    V higher(V value) {
+        if (value.compareTo(last) >= 0) {
+            return null;
+        }
+        return scan(blockBefore(value, true), value, true);
+    }
+
+    /**
+     * Returns a cursor reading all values in order with its own file handle, for merging runs.
+     */
+    Cursor<V> cursor() throws IOException {
+        return new Cursor<V>(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, %s..%s (%d)]", getClass().getSimpleName(), file.getName(), first(), last, size);
+    }
+
+    /**
+     * Returns the block to start scanning from: the last block whose first value is less than (or, when inclusive,
+     * equal to) the value, or the first block if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private int blockBefore(V value, boolean inclusive) {
+        int low = 0;
+        int high = blockFirst.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            int compare = ((V) blockFirst[mid]).compareTo(value);
+            if (compare < 0 || inclusive && compare == 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads blocks starting at the given one until a value greater than or equal to (or, when strictly, greater than)
+     * the given value is found.
+     */
+    private synchronized V scan(int block, V value, boolean strictly) {
+        try {
+            for (; block < blockOffset.length; block++) {
+                long end = block + 1 < blockOffset.length ? blockOffset[block + 1] : dataEnd;
+                byte[] bytes = new byte[(int) (end - blockOffset[block])];
+                in.seek(blockOffset[block]);
+                in.readFully(bytes);
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+                while (data.available() > 0) {
+                    V candidate = codec.read(data);
+                    int compare = candidate.compareTo(value);
+                    if (compare > 0 || compare == 0 && !strictly) {
+                        return candidate;
+                    }
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the values of a run in order.
+     */
+    static class Cursor<V extends Comparable<? super V>> implements Closeable {
+        private final ValueCodec<V> codec;
+        private final DataInputStream in;
+        private int remaining;
+        V value;
+
+        private Cursor(SortedRun<V> run) throws IOException {
+            codec = run.codec;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+            remaining = run.size;
+        }
+
+        /**
+         * Moves to the next value. Returns false, leaving value null, when there are no more values.
+         */
+        boolean advance() throws IOException {
+            value = remaining-- > 0 ? codec.read(in) : null;
+            return value != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes values to and reads them from the sorted run files of an {@link LsmTree}.
+ */
+public interface ValueCodec<V> {
+    /**
+     * Writes the value.
+     *
+     * @param out the output to write to
+     * @param value the value to write
+     * @throws IOException if the value cannot be written
+     */
+    void write(DataOutput out, V value) throws IOException;
+
+    /**
+     * Reads a value written by {@link #write(DataOutput, Object)}.
+     *
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if the value cannot be read
+     */
+    V read(DataInput in) throws IOException;
+}
@@ -0,0 +1,137 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link BTree}.
+ */
+public class BTreeTest {
+    @Test
+    public void emptyTreeHas0sizeAndIsEmpty() {
+        BTree<Integer> tree = new BTree<Integer>();
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.size());
+        assertNull(tree.first());
+        assertNull(tree.last());
+        assertFalse(tree.remove(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fanOutLessThan4IsRejected() {
+        new BTree<Integer>(3);
+    }
+
+    @Test
+    public void addSomeValuesAndTryVariousCeilingAndHigherValues() {
+        BTree<Integer> tree = new BTree<Integer>(4);
+        for (int i = 0; i <= 20; i += 2) {
+            tree.add(i);
+        }
+
+        assertEquals(Integer.valueOf(0), tree.ceiling(Integer.MIN_VALUE));
+        assertEquals(Integer.valueOf(4), tree.ceiling(3));
+        assertEquals(Integer.valueOf(4), tree.ceiling(4));
+        assertNull(tree.ceiling(21));
+        assertEquals(Integer.valueOf(0), tree.higher(-1));
+        assertEquals(Integer.valueOf(6), tree.higher(4));
+        assertEquals(Integer.valueOf(6), tree.higher(5));
+        assertNull(tree.higher(20));
+        assertEquals(Integer.valueOf(0), tree.first());
+        assertEquals(Integer.valueOf(20), tree.last());
+    }
+
+    @Test
+    public void duplicateValuesAreKeptAndRemovedOneAtATime() {
+        BTree<Integer> tree = new BTree<Integer>(4);
+        for (int i = 0; i < 20; i++) {
+            tree.add(7);
+        }
+        assertEquals(20, tree.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(tree.contains(7));
+            assertTrue(tree.remove(7));
+        }
+        assertFalse(tree.remove(7));
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void randomAddsAndRemovesMatchASortedList() {
+        Random random = new Random(26);
+        for (int fanOut : new int[]{4, 5, 8, 64}) {
+            BTree<Integer> tree = new BTree<Integer>(fanOut);
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < 20000; i++) {
+                Integer value = random.nextInt(2000);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(value), tree.remove(value));
+                } else {
+                    tree.add(value);
+                    int index = Collections.binarySearch(expected, value);
+                    expected.add(index < 0 ? -index - 1 : index, value);
+                }
+                assertEquals(expected.size(), tree.size());
+            }
+            verifyTree(tree);
+            for (int value = -1; value <= 2001; value++) {
+                int index = Collections.binarySearch(expected, value);
+                assertEquals(index >= 0, tree.contains(value));
+                assertEquals(ceiling(expected, value), tree.ceiling(value));
+                assertEquals(ceiling(expected, value + 1), tree.higher(value));
+            }
+            assertEquals(expected.get(0), tree.first());
+            assertEquals(expected.get(expected.size() - 1), tree.last());
+        }
+    }
+
+    private Integer ceiling(List<Integer> sorted, int value) {
+        for (Integer element : sorted) {
+            if (element >= value) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private void verifyTree(BTree<Integer> tree) {
+        assertEquals(tree.size(), tree.root == null ? 0 : tree.root.size());
+        if (tree.root != null) {
+            verifyNode(tree, tree.root, true, depth(tree.root), 1);
+        }
+    }
+
+    private void verifyNode(BTree<Integer> tree, BTreeNode<Integer> node, boolean isRoot, int depth, int level) {
+        assertTrue(String.format("Node has too few keys, %s", node), isRoot || node.count >= tree.minDegree - 1);
+        for (int i = 1; i < node.count; i++) {
+            assertTrue(node.key(i - 1) <= node.key(i));
+        }
+        if (node.isLeaf()) {
+            assertEquals("Leaves must all be at the same depth", depth, level);
+        } else {
+            for (int i = 0; i <= node.count; i++) {
+                BTreeNode<Integer> child = node.children[i];
+                if (i > 0) {
+                    assertTrue(child.key(0) >= node.key(i - 1));
+                }
+                if (i < node.count) {
+                    assertTrue(child.key(child.count - 1) <= node.key(i));
+                }
+                verifyNode(tree, child, false, depth, level + 1);
+            }
+        }
+    }
+
+    private int depth(BTreeNode<Integer> node) {
+        int depth = 1;
+        while (!node.isLeaf()) {
+            node = node.children[0];
+            depth++;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link FrozenTree}.
+ */
+public class FrozenTreeTest {
+    @Test
+    public void emptyFrozenTreeHas0sizeAndIsEmpty() {
+        FrozenTree<Integer> frozen = new RedBlackTree<Integer>().freeze();
+        assertTrue(frozen.isEmpty());
+        assertEquals(0, frozen.size());
+        assertNull(frozen.first());
+        assertNull(frozen.last());
+        assertFalse(frozen.contains(0));
+        assertNull(frozen.ceiling(0));
+        assertNull(frozen.floor(0));
+        assertNull(frozen.higher(0));
+        assertArrayEquals(new boolean[]{false}, frozen.contains(new Integer[]{0}));
+    }
+
+    @Test
+    public void frozenTreeIsNotChangedByLaterAdds() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.add(1);
+        FrozenTree<Integer> frozen = tree.freeze();
+        tree.add(2);
+        assertEquals(1, frozen.size());
+        assertFalse(frozen.contains(2));
+    }
+
+    @Test
+    public void frozenTreeMatchesTreeSetForEverySize() {
+        Random random = new Random(27);
+        for (int size = 1; size <= 200; size++) {
+            RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+            TreeSet<Integer> expected = new TreeSet<Integer>();
+            while (expected.size() < size) {
+                int value = random.nextInt(1000) * 2;
+                if (expected.add(value)) {
+                    tree.add(value);
+                }
+            }
+            FrozenTree<Integer> frozen = tree.freeze();
+            assertEquals(size, frozen.size());
+            assertEquals(expected.first(), frozen.first());
+            assertEquals(expected.last(), frozen.last());
+
+            Integer[] probes = new Integer[2003];
+            for (int value = -1; value <= 2001; value++) {
+                probes[value + 1] = value;
+                assertEquals(expected.contains(value), frozen.contains(value));
+                assertEquals(expected.ceiling(value), frozen.ceiling(value));
+                assertEquals(expected.floor(value), frozen.floor(value));
+                assertEquals(expected.higher(value), frozen.higher(value));
+            }
+            boolean[] found = frozen.contains(probes);
+            for (int i = 0; i < probes.length; i++) {
+                assertEquals(expected.contains(probes[i]), found[i]);
+            }
+        }
+    }
+
+    @Test
+    public void duplicateValuesAreKept() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (int i = 0; i < 5; i++) {
+            tree.add(3);
+            tree.add(5);
+        }
+        FrozenTree<Integer> frozen = tree.freeze();
+        assertEquals(10, frozen.size());
+        assertEquals(Integer.valueOf(3), frozen.ceiling(3));
+        assertEquals(Integer.valueOf(5), frozen.higher(3));
+        assertEquals(Integer.valueOf(3), frozen.floor(4));
+        assertEquals(Integer.valueOf(5), frozen.floor(5));
+    }
+}
@@ -0,0 +1,222 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link LsmTree}.
+ */
+public class LsmTreeTest {
+    private static final ValueCodec<Integer> CODEC = new ValueCodec<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyTreeHas0sizeAndIsEmpty() throws IOException {
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 10);
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.size());
+        assertNull(tree.first());
+        assertNull(tree.last());
+        assertNull(tree.ceiling(0));
+        assertFalse(tree.contains(0));
+        tree.close();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void lookupsMergeTheMemtableAndTheRuns() throws IOException {
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 100, 1000);
+        List<Integer> values = addRandomValues(tree, 1050, 31);
+        assertEquals(10, tree.runCount());
+        verifyTree(tree, values);
+        tree.close();
+    }
+
+    @Test
+    public void backgroundCompactionMergesRuns() throws IOException {
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 50, 3);
+        List<Integer> values = addRandomValues(tree, 2000, 32);
+        verifyTree(tree, values);
+        tree.close();
+
+        tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 50, 3);
+        verifyTree(tree, values);
+        tree.close();
+    }
+
+    @Test(timeout = 60000)
+    public void runCountStaysLogarithmicUnderSustainedWrites() throws Exception {
+        final LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 200, 3);
+        final int count = 100000;
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger missing = new AtomicInteger(-1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(33);
+                while (!Thread.currentThread().isInterrupted()) {
+                    int bound = added.get();
+                    if (bound > 0) {
+                        int value = random.nextInt(bound);
+                        if (!tree.contains(value)) {
+                            missing.compareAndSet(-1, value);
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        // 500 flushes fill at most 7 tiers of 3, and a tier never holds more than 2 * 3 runs
+        int maxRuns = 0;
+        for (int i = 0; i < count; i++) {
+            tree.add(i);
+            added.set(i + 1);
+            maxRuns = Math.max(maxRuns, tree.runCount());
+        }
+        reader.interrupt();
+        reader.join();
+        assertEquals("Values must stay visible while they are flushed", -1, missing.get());
+        assertTrue(String.format("Run count reached %d", maxRuns), maxRuns <= 7 * 6);
+        assertEquals(count, tree.size());
+        assertEquals(Integer.valueOf(0), tree.first());
+        assertEquals(Integer.valueOf(count - 1), tree.last());
+        assertTrue(tree.contains(count / 2));
+        tree.close();
+    }
+
+    @Test
+    public void compactLeavesASingleRunAndReopenedTreeHasTheSameValues() throws IOException {
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 64, 100);
+        List<Integer> values = addRandomValues(tree, 1000, 33);
+        tree.compact();
+        assertEquals(1, tree.runCount());
+        assertEquals(1, folder.getRoot().list().length);
+        verifyTree(tree, values);
+        tree.close();
+
+        tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 64, 100);
+        verifyTree(tree, values);
+        tree.add(-1);
+        assertEquals(Integer.valueOf(-1), tree.first());
+        tree.close();
+    }
+
+    @Test
+    public void runsLeftBehindByAnInterruptedCompactionAreDropped() throws IOException {
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 100, 100);
+        List<Integer> values = addRandomValues(tree, 500, 34);
+        tree.close();
+        File saved = folder.newFolder();
+        for (File file : folder.getRoot().listFiles()) {
+            if (file.isFile()) {
+                Files.copy(file.toPath(), new File(saved, file.getName()).toPath());
+            }
+        }
+
+        tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 100, 100);
+        tree.compact();
+        tree.close();
+        // put the merged inputs back, as if the process died before deleting them
+        for (File file : saved.listFiles()) {
+            Files.copy(file.toPath(), new File(folder.getRoot(), file.getName()).toPath());
+        }
+
+        tree = new LsmTree<Integer>(folder.getRoot(), CODEC, 100, 100);
+        assertEquals(1, tree.runCount());
+        verifyTree(tree, values);
+        tree.close();
+        for (File file : saved.listFiles()) {
+            assertFalse(new File(folder.getRoot(), file.getName()).exists());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void failedBackgroundMergesAreReportedByCompactAndNotByAdd() throws IOException {
+        ValueCodec<Integer> failingMerges = new ValueCodec<Integer>() {
+            @Override
+            public void write(DataOutput out, Integer value) throws IOException {
+                if (Thread.currentThread().getName().equals("lsm-compactor")) {
+                    throw new IOException("Merge failed");
+                }
+                CODEC.write(out, value);
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return CODEC.read(in);
+            }
+        };
+        LsmTree<Integer> tree = new LsmTree<Integer>(folder.getRoot(), failingMerges, 10, 2);
+        List<Integer> values = addRandomValues(tree, 200, 35);
+        verifyTree(tree, values);
+        try {
+            tree.compact();
+            fail("The failed merges must be reported");
+        } catch (IOException e) {
+            assertEquals("Merge failed", e.getMessage());
+        }
+        verifyTree(tree, values);
+        tree.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void memtableCapacityLessThan1IsRejected() throws IOException {
+        new LsmTree<Integer>(folder.getRoot(), CODEC, 0);
+    }
+
+    private List<Integer> addRandomValues(LsmTree<Integer> tree, int count, long seed) {
+        Random random = new Random(seed);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            int value = random.nextInt(1000) * 2;
+            values.add(value);
+            tree.add(value);
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    private void verifyTree(LsmTree<Integer> tree, List<Integer> sorted) {
+        assertEquals(sorted.size(), tree.size());
+        assertEquals(sorted.get(0), tree.first());
+        assertEquals(sorted.get(sorted.size() - 1), tree.last());
+        for (int value = -1; value <= 2000; value++) {
+            int index = Collections.binarySearch(sorted, value);
+            int ceiling = index >= 0 ? index : -index - 1;
+            while (ceiling > 0 && sorted.get(ceiling - 1) == value) {
+                ceiling--;
+            }
+            int higher = ceiling;
+            while (higher < sorted.size() && sorted.get(higher) <= value) {
+                higher++;
+            }
+            assertEquals(index >= 0, tree.contains(value));
+            assertEquals(ceiling < sorted.size() ? sorted.get(ceiling) : null, tree.ceiling(value));
+            assertEquals(higher < sorted.size() ? sorted.get(higher) : null, tree.higher(value));
+        }
+    }
+}
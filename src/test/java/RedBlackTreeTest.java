@@ -1,5 +1,9 @@
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -200,6 +204,334 @@ public class RedBlackTreeTest {
         verifyTree(tree);
     }
 
+    @Test
+    public void ceilingAndHigherFindValuesBetweenNodes() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (int i = 0; i <= 20; i += 2) {
+            tree.add(i);
+        }
+        for (int i = -1; i <= 19; i++) {
+            int ceiling = i < 0 ? 0 : (i + 1) / 2 * 2;
+            assertEquals(Integer.valueOf(ceiling), tree.ceiling(i));
+            assertEquals(Integer.valueOf(i < 0 ? 0 : i / 2 * 2 + 2), tree.higher(i));
+        }
+        assertNull(tree.ceiling(21));
+        assertNull(tree.higher(20));
+    }
+
+    @Test
+    public void lazyDeletionSkipsDeletedValuesAndCompacts() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.setCompactionRatio(0.5);
+        for (int i = 1; i <= 100; i++) {
+            tree.add(i);
+        }
+        Node<Integer> root = tree.root;
+        for (int i = 1; i <= 50; i++) {
+            assertTrue(tree.remove(i));
+            assertFalse(tree.remove(i));
+        }
+        assertSame("Removing up to the ratio must not restructure the tree", root, tree.root);
+        assertEquals(50, tree.size());
+        assertFalse(tree.contains(1));
+        assertTrue(tree.contains(51));
+        assertEquals(Integer.valueOf(51), tree.first());
+        assertEquals(Integer.valueOf(51), tree.ceiling(10));
+        assertEquals(Integer.valueOf(51), tree.higher(10));
+        verifyTree(tree);
+
+        for (int i = 100; i > 51; i--) {
+            assertTrue(tree.remove(i));
+            assertEquals(i - 51, tree.size());
+            assertEquals(Integer.valueOf(i - 1), tree.last());
+            verifyTree(tree);
+        }
+        assertEquals(Integer.valueOf(51), tree.first());
+        assertTrue(tree.remove(51));
+        assertTrue(tree.isEmpty());
+        assertNull(tree.first());
+        assertNull(tree.last());
+    }
+
+    @Test
+    public void compactRebuildsAValidTreeFromLiveValues() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.setCompactionRatio(1);
+        Random random = new Random(28);
+        Integer[] values = new Integer[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(500);
+            tree.add(values[i]);
+        }
+        for (int i = 0; i < values.length; i += 3) {
+            assertTrue(tree.remove(values[i]));
+        }
+        int size = tree.size();
+        assertTrue(tree.root.size() > size);
+
+        tree.compact();
+
+        assertEquals(size, tree.size());
+        assertEquals(size, tree.root.size());
+        verifyTree(tree);
+        tree.setCompactionRatio(0);
+        for (int i = 1; i < values.length; i += 3) {
+            assertTrue(tree.remove(values[i]));
+        }
+        assertEquals(tree.size(), tree.root.size());
+        verifyTree(tree);
+    }
+
+    @Test
+    public void lazyDeletionUnlinksTombstonesIncrementally() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.setCompactionRatio(0.2);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            Integer value = i;
+            values.add(value);
+            tree.add(value);
+        }
+        Collections.shuffle(values, new Random(28));
+        for (int i = 0; i < 4000; i++) {
+            assertTrue(tree.remove(values.get(i)));
+            int nodes = tree.root.size();
+            assertTrue("Tombstones must stay near the ratio", nodes - tree.size() <= 0.2 * nodes + 1);
+            if (i % 250 == 0) {
+                verifyTree(tree);
+            }
+        }
+        assertEquals(1000, tree.size());
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(i >= 4000, tree.contains(values.get(i)));
+        }
+        verifyTree(tree);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compactionRatioAbove1IsRejected() {
+        new RedBlackTree<Integer>().setCompactionRatio(1.5);
+    }
+
+    @Test
+    public void boundedTreeKeepsTheLargestValues() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>(5, RedBlackTree.Eviction.First);
+        final List<Integer> evicted = new ArrayList<Integer>();
+        tree.setEvictionListener(new RedBlackTree.EvictionListener<Integer>() {
+            @Override
+            public void evicted(Integer value) {
+                evicted.add(value);
+            }
+        });
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(tree.offer(i * 10));
+        }
+        assertFalse(tree.offer(5));
+        assertFalse(tree.offer(10));
+        assertTrue(evicted.isEmpty());
+
+        assertTrue(tree.offer(35));
+        assertEquals(5, tree.size());
+        assertEquals(Integer.valueOf(20), tree.first());
+        assertEquals(Integer.valueOf(50), tree.last());
+        tree.add(60);
+        assertEquals(Integer.valueOf(30), tree.first());
+        assertEquals(Integer.valueOf(60), tree.last());
+        assertEquals(Arrays.asList(10, 20), evicted);
+        verifyTree(tree);
+    }
+
+    @Test
+    public void boundedTreeKeepsTheSmallestValues() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>(100, RedBlackTree.Eviction.Last);
+        tree.setCompactionRatio(0.25);
+        Random random = new Random(29);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt(5000);
+            values.add(value);
+            tree.add(value);
+            assertTrue(tree.size() <= 100);
+        }
+        Collections.sort(values);
+        assertEquals(100, tree.size());
+        assertEquals(values.get(0), tree.first());
+        assertEquals(values.get(99), tree.last());
+        verifyTree(tree);
+    }
+
+    @Test(timeout = 10000)
+    public void boundedLazyTreeDoesNotWalkPastEvictedValues() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>(100000, RedBlackTree.Eviction.First);
+        tree.setCompactionRatio(0.9);
+        for (int i = 0; i < 1000000; i++) {
+            tree.offer(i);
+        }
+        assertEquals(100000, tree.size());
+        assertEquals(Integer.valueOf(900000), tree.first());
+
+        RedBlackTree<Integer> topK = new RedBlackTree<Integer>();
+        topK.setCompactionRatio(0.9);
+        for (int i = 0; i < 1000000; i++) {
+            topK.add(i);
+            if (topK.size() > 100000) {
+                assertTrue(topK.remove(topK.first()));
+            }
+        }
+        assertEquals(Integer.valueOf(900000), topK.first());
+        assertEquals(Integer.valueOf(999999), topK.last());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityLessThan1IsRejected() {
+        new RedBlackTree<Integer>(0, RedBlackTree.Eviction.First);
+    }
+
+    @Test
+    public void firstAndLastFollowRandomAddsAndRemoves() throws TreePropertyException {
+        Random random = new Random(29);
+        for (double compactionRatio : new double[]{0, 0.5}) {
+            RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+            tree.setCompactionRatio(compactionRatio);
+            List<Integer> values = new ArrayList<Integer>();
+            for (int i = 0; i < 5000; i++) {
+                if (values.isEmpty() || random.nextInt(3) > 0) {
+                    Integer value = random.nextInt(100);
+                    values.add(value);
+                    tree.add(value);
+                } else {
+                    assertTrue(tree.remove(values.remove(random.nextInt(values.size()))));
+                }
+                assertEquals(values.isEmpty() ? null : Collections.min(values), tree.first());
+                assertEquals(values.isEmpty() ? null : Collections.max(values), tree.last());
+            }
+            verifyTree(tree);
+        }
+    }
+
+    @Test
+    public void diffStreamsAddedAndRemovedValuesInOrder() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        RedBlackTree<Integer> other = new RedBlackTree<Integer>();
+        other.setCompactionRatio(1);
+        for (int i = 1; i <= 10; i++) {
+            tree.add(i);
+            other.add(i + 5);
+        }
+        tree.add(7);
+        other.remove(8);
+        final List<String> changes = new ArrayList<String>();
+        RedBlackTree.DiffListener<Integer> listener = new RedBlackTree.DiffListener<Integer>() {
+            @Override
+            public void added(Integer value) {
+                changes.add("+" + value);
+            }
+
+            @Override
+            public void removed(Integer value) {
+                changes.add("-" + value);
+            }
+        };
+
+        tree.diff(other, listener);
+        assertEquals(Arrays.asList("-1", "-2", "-3", "-4", "-5", "-7", "-8", "+11", "+12", "+13", "+14", "+15"),
+                changes);
+
+        changes.clear();
+        tree.diff(tree, listener);
+        other.diff(new RedBlackTree<Integer>(), listener);
+        assertEquals(Arrays.asList("-6", "-7", "-9", "-10", "-11", "-12", "-13", "-14", "-15"), changes);
+    }
+
+    @Test
+    public void hashIndexedTreeAgreesWithUnindexedTree() throws TreePropertyException {
+        Random random = new Random(31);
+        for (double compactionRatio : new double[]{0, 0.3}) {
+            RedBlackTree<Integer> indexed = new RedBlackTree<Integer>();
+            RedBlackTree<Integer> plain = new RedBlackTree<Integer>();
+            indexed.setCompactionRatio(compactionRatio);
+            Integer[] values = new Integer[300];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(1000);
+            }
+            for (int i = 0; i < 20000; i++) {
+                Integer value = values[random.nextInt(values.length)];
+                if (i == 100) {
+                    indexed.setHashIndex(true);
+                }
+                switch (random.nextInt(3)) {
+                    case 0:
+                        indexed.add(value);
+                        plain.add(value);
+                        break;
+                    case 1:
+                        assertEquals(plain.remove(value), indexed.remove(value));
+                        break;
+                    default:
+                        assertEquals(plain.contains(value), indexed.contains(value));
+                }
+                assertEquals(plain.size(), indexed.size());
+            }
+            for (Integer value : values) {
+                assertEquals(plain.contains(value), indexed.contains(value));
+            }
+            verifyTree(indexed);
+
+            indexed.clear();
+            assertFalse(indexed.contains(values[0]));
+            indexed.add(values[0]);
+            assertTrue(indexed.contains(values[0]));
+        }
+    }
+
+    @Test
+    public void randomRemovesKeepTheTreeValid() throws TreePropertyException {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        Random random = new Random(32);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 2000; i++) {
+            Integer value = random.nextInt(500);
+            values.add(value);
+            tree.add(value);
+        }
+        Collections.shuffle(values, random);
+        for (Integer value : values) {
+            assertTrue(tree.remove(value));
+            verifyTree(tree);
+        }
+        assertTrue(tree.isEmpty());
+        assertNull(tree.root);
+    }
+
+    @Test
+    public void removeKeepsTheValuesOfOtherNodes() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (int i = 1; i <= 100; i++) {
+            tree.add(i);
+        }
+        List<Node<Integer>> nodes = new ArrayList<Node<Integer>>();
+        collectNodes(tree.root, nodes);
+        Node<Integer> removed = tree.root;
+        assertTrue(removed.left != null && removed.right != null);
+
+        assertTrue(tree.remove(removed.value));
+
+        for (Node<Integer> node : nodes) {
+            if (node != removed) {
+                assertEquals(Integer.valueOf(nodes.indexOf(node) + 1), node.value);
+            }
+        }
+        assertEquals(99, tree.size());
+    }
+
+    private void collectNodes(Node<Integer> node, List<Node<Integer>> nodes) {
+        if (node != null) {
+            collectNodes(node.left, nodes);
+            nodes.add(node);
+            collectNodes(node.right, nodes);
+        }
+    }
+
     private void verifyTree(RedBlackTree<Integer> tree) throws TreePropertyException {
         verifyTreeProperty1(tree.root);
         verifyTreeProperty2(tree.root);
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A simple wall-clock benchmark comparing the tree implementations. It is not run as part of the test suite; run it
+ * after {@code mvn test-compile} with
+ * <pre>
+ * java -cp target/classes:target/test-classes TreeBenchmark [size]
+ * </pre>
+ * Each measurement is repeated a few times so the later rounds run on JIT compiled code. The found counts differ
+ * because {@link RedBlackTree} matches value instances while {@link BTree} and {@link FrozenTree} match equal values.
+ */
+public class TreeBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Integer[] values = randomValues(size, 42);
+        Integer[] probes = randomValues(size, 43);
+        for (int i = 0; i < size; i += 2) {
+            probes[i] = values[i];
+        }
+
+        measureHashIndexMemory(values);
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.printf("Round %d, %d values%n", round, size);
+            benchmarkRedBlackTree(values, probes, 0, false);
+            benchmarkRedBlackTree(values, probes, 0.5, false);
+            benchmarkRedBlackTree(values, probes, 0, true);
+            benchmarkRemoveBurst(values, 0, false);
+            benchmarkRemoveBurst(values, 0.25, false);
+            benchmarkRemoveBurst(values, 0, true);
+            benchmarkRemoveBurst(values, 0.25, true);
+            benchmarkBTree(values, probes, 8);
+            benchmarkBTree(values, probes, BTree.DEFAULT_FAN_OUT);
+            benchmarkBTree(values, probes, 128);
+            benchmarkFrozenTree(values, probes);
+        }
+    }
+
+    private static void benchmarkRedBlackTree(Integer[] values, Integer[] probes, double compactionRatio,
+                                              boolean hashIndex) {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.setCompactionRatio(compactionRatio);
+        tree.setHashIndex(hashIndex);
+        long start = System.nanoTime();
+        for (Integer value : values) {
+            tree.add(value);
+        }
+        long added = System.nanoTime();
+        int found = 0;
+        for (Integer probe : probes) {
+            found += tree.contains(probe) ? 1 : 0;
+        }
+        long searched = System.nanoTime();
+        for (Integer value : values) {
+            tree.remove(value);
+        }
+        long removed = System.nanoTime();
+        report(hashIndex ? "RedBlackTree hash" : compactionRatio == 0 ? "RedBlackTree" : "RedBlackTree lazy",
+                values.length, start, added, searched, removed, found);
+    }
+
+    /**
+     * Removes half of the values in one burst, timing each removal, to compare eager unlinking with lazy deletion. With
+     * a compaction ratio below one half, the lazy burst includes the compaction it triggers along the way. The hash
+     * index takes the search out of the removal, leaving mostly the cost of unlinking.
+     */
+    private static void benchmarkRemoveBurst(Integer[] values, double compactionRatio, boolean hashIndex) {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        tree.setCompactionRatio(compactionRatio);
+        tree.setHashIndex(hashIndex);
+        for (Integer value : values) {
+            tree.add(value);
+        }
+        long[] times = new long[values.length / 2];
+        long total = 0;
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            tree.remove(values[i]);
+            times[i] = System.nanoTime() - start;
+            total += times[i];
+        }
+        Arrays.sort(times);
+        System.out.printf("  %-22s remove burst %6.1f ns/op, p99 %6d ns, p99.9 %6d ns, max %8d ns%n",
+                (hashIndex ? "RedBlackTree hash" : "RedBlackTree") + (compactionRatio == 0 ? "" : " lazy"),
+                total / (double) times.length,
+                times[times.length * 99 / 100], times[times.length * 999 / 1000], times[times.length - 1]);
+    }
+
+    private static void benchmarkBTree(Integer[] values, Integer[] probes, int fanOut) {
+        BTree<Integer> tree = new BTree<Integer>(fanOut);
+        long start = System.nanoTime();
+        for (Integer value : values) {
+            tree.add(value);
+        }
+        long added = System.nanoTime();
+        int found = 0;
+        for (Integer probe : probes) {
+            found += tree.contains(probe) ? 1 : 0;
+        }
+        long searched = System.nanoTime();
+        for (Integer value : values) {
+            tree.remove(value);
+        }
+        long removed = System.nanoTime();
+        report(String.format("BTree(%d)", fanOut), values.length, start, added, searched, removed, found);
+    }
+
+    private static void measureHashIndexMemory(Integer[] values) {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (Integer value : values) {
+            tree.add(value);
+        }
+        long before = usedMemory();
+        tree.setHashIndex(true);
+        long after = usedMemory();
+        System.out.printf("  %-22s %5.1f bytes/value for the hash index%n", "RedBlackTree hash",
+                (after - before) / (double) values.length);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void benchmarkFrozenTree(Integer[] values, Integer[] probes) {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        for (Integer value : values) {
+            tree.add(value);
+        }
+        long start = System.nanoTime();
+        FrozenTree<Integer> frozen = tree.freeze();
+        long frozenAt = System.nanoTime();
+        int found = 0;
+        for (Integer probe : probes) {
+            found += frozen.contains(probe) ? 1 : 0;
+        }
+        long searched = System.nanoTime();
+        int batchFound = 0;
+        for (boolean contained : frozen.contains(probes)) {
+            batchFound += contained ? 1 : 0;
+        }
+        long batchSearched = System.nanoTime();
+        System.out.printf("  %-22s freeze %5.1f ns/value, contains %6.1f ns/op, batch contains %6.1f ns/op " +
+                        "(found %d, %d)%n", "FrozenTree", (frozenAt - start) / (double) values.length,
+                (searched - frozenAt) / (double) probes.length, (batchSearched - searched) / (double) probes.length,
+                found, batchFound);
+    }
+
+    static void report(String name, int count, long start, long added, long searched, long removed, int found) {
+        System.out.printf("  %-22s add %6.1f ns/op, contains %6.1f ns/op, remove %6.1f ns/op (found %d)%n", name,
+                (added - start) / (double) count, (searched - added) / (double) count,
+                (removed - searched) / (double) count, found);
+    }
+
+    static Integer[] randomValues(int size, long seed) {
+        Random random = new Random(seed);
+        Integer[] values = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextInt();
+        }
+        return values;
+    }
+}